@@ -2,6 +2,8 @@ package client;
 
 import common.exceptions.ConnectionErrorException;
 import common.exceptions.DeclaredLimitException;
+import common.interaction.FrameCodec;
+import common.interaction.MessageStream;
 import common.interaction.Request;
 import common.interaction.Response;
 import common.interaction.ResponseCode;
@@ -11,11 +13,16 @@ import common.utility.OutputDeliver;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Run the client.
  */
 public class Client {
+    private static final int MAX_REQUESTS_IN_FLIGHT = 64;
+
     private String host;
     private int port;
     private int reconnectionTimeout;
@@ -23,10 +30,16 @@ public class Client {
     private int maxReconnectionAttempts;
     private UserHandler userHandler;
     private SocketChannel socketChannel;
-    private ObjectOutputStream serverWriter;
-    private ObjectInputStream serverReader;
+    private MessageStream serverStream;
     private AuthHandler authHandler;
     private User user;
+    private String sessionToken;
+    private boolean isSessionExpired;
+    private long lastCorrelationId;
+    private long lastPrintedCorrelationId;
+    private int requestsInFlight;
+    private TreeMap<Long, Response> receivedResponses = new TreeMap<>();
+    private Map<Long, StringBuilder> partialBodies = new HashMap<>();
 
     public Client(String host, int port, int reconnectionTimeOut, int maxReconnectionAttempts, UserHandler userHandler, AuthHandler authHandler) {
         this.host = host;
@@ -83,8 +96,8 @@ public class Client {
             socketChannel = SocketChannel.open(new InetSocketAddress(host, port));
             OutputDeliver.println("Соединение с сервером успешно установлено.");
             OutputDeliver.println("Ожидание разрешения на обмен данными...");
-            serverWriter = new ObjectOutputStream(socketChannel.socket().getOutputStream());
-            serverReader = new ObjectInputStream(socketChannel.socket().getInputStream());
+            serverStream = MessageStream.connect(new BufferedInputStream(socketChannel.socket().getInputStream()),
+                    new BufferedOutputStream(socketChannel.socket().getOutputStream()), FrameCodec.LATEST_VERSION);
             OutputDeliver.println("Разрешение на обмен данными получено.");
         } catch (IllegalArgumentException exception) {
             OutputDeliver.printError("Адрес сервера введен некорректно!");
@@ -96,19 +109,24 @@ public class Client {
     }
 
     /**
-     * Server request process.
+     * Server request process. Script commands are sent without waiting for responses,
+     * responses are printed in order of the commands.
      */
     private boolean processRequestToServer() {
         Request requestToServer = null;
-        Response serverResponse = null;
+        ResponseCode lastResponseCode = null;
         do {
             try {
-                requestToServer = serverResponse != null ? userHandler.handle(serverResponse.getResponseCode(), user) :
-                        userHandler.handle(null, user);
+                if (!userHandler.hasScriptInput()) lastResponseCode = receiveResponses(0, lastResponseCode);
+                if (isSessionExpired) {
+                    receiveResponses(0, null);
+                    processAuthentication();
+                }
+                requestToServer = userHandler.handle(lastResponseCode, sessionToken == null ? user : null);
                 if (requestToServer.isEmpty()) continue;
-                serverWriter.writeObject(requestToServer);
-                serverResponse = (Response) serverReader.readObject();
-                OutputDeliver.print(serverResponse.getResponseBody());
+                sendRequest(requestToServer);
+                int maxRequestsInFlight = userHandler.hasScriptInput() ? MAX_REQUESTS_IN_FLIGHT - 1 : 0;
+                lastResponseCode = receiveResponses(maxRequestsInFlight, lastResponseCode);
             } catch (InvalidClassException exception) {
                 OutputDeliver.printError("Произошла ошибка при отправке данных на сервер!");
             } catch (NotSerializableException exception) {
@@ -118,6 +136,7 @@ public class Client {
             } catch (IOException exception) {
                 OutputDeliver.printError("Соединение с сервером разорвано!");
                 exception.printStackTrace();
+                forgetRequestsInFlight();
                 try {
                     reconnectionAttempts++;
                     connectToServer();
@@ -128,9 +147,86 @@ public class Client {
                 }
             }
         } while (!requestToServer.getCommandName().equals("exit"));
+        try {
+            receiveResponses(0, null);
+        } catch (IOException | ClassNotFoundException exception) {
+            OutputDeliver.printError("Соединение с сервером разорвано!");
+        }
         return false;
     }
 
+    /**
+     * Sends request with the next correlation id and the session token instead of credentials.
+     */
+    private void sendRequest(Request request) throws IOException {
+        request.setCorrelationId(++lastCorrelationId);
+        request.setSessionToken(sessionToken);
+        serverStream.write(request);
+        requestsInFlight++;
+    }
+
+    /**
+     * Reads responses until no more than maxRequestsInFlight requests are without response,
+     * then prints responses which follow already printed ones.
+     * @return Code of the last printed response.
+     */
+    private ResponseCode receiveResponses(int maxRequestsInFlight, ResponseCode lastResponseCode)
+            throws IOException, ClassNotFoundException {
+        while (requestsInFlight > maxRequestsInFlight) {
+            Response serverResponse = (Response) serverStream.read();
+            if (serverResponse.hasMore()) {
+                receiveChunk(serverResponse);
+                continue;
+            }
+            requestsInFlight--;
+            if (serverResponse.getResponseCode() == ResponseCode.SESSION_EXPIRED) isSessionExpired = true;
+            receivedResponses.put(serverResponse.getCorrelationId(), serverResponse);
+        }
+        while (!receivedResponses.isEmpty() &&
+                (requestsInFlight == 0 || receivedResponses.firstKey() == lastPrintedCorrelationId + 1)) {
+            Response serverResponse = receivedResponses.pollFirstEntry().getValue();
+            printPartialBody(serverResponse.getCorrelationId());
+            OutputDeliver.print(serverResponse.getResponseBody());
+            lastResponseCode = serverResponse.getResponseCode();
+            lastPrintedCorrelationId++;
+        }
+        if (requestsInFlight == 0) lastPrintedCorrelationId = lastCorrelationId;
+        else printPartialBody(lastPrintedCorrelationId + 1);
+        return lastResponseCode;
+    }
+
+    /**
+     * Prints chunk of the response at once, if all previous responses are printed, otherwise keeps it.
+     */
+    private void receiveChunk(Response chunk) {
+        long correlationId = chunk.getCorrelationId();
+        if (correlationId == lastPrintedCorrelationId + 1) {
+            printPartialBody(correlationId);
+            OutputDeliver.print(chunk.getResponseBody());
+        } else {
+            partialBodies.computeIfAbsent(correlationId, id -> new StringBuilder()).append(chunk.getResponseBody());
+        }
+    }
+
+    /**
+     * Prints kept chunks of the response.
+     */
+    private void printPartialBody(long correlationId) {
+        StringBuilder partialBody = partialBodies.remove(correlationId);
+        if (partialBody != null) OutputDeliver.print(partialBody);
+    }
+
+    /**
+     * Drops requests lost with the connection.
+     */
+    private void forgetRequestsInFlight() {
+        if (requestsInFlight > 0) OutputDeliver.println("Ответы на " + requestsInFlight + " команд не получены.");
+        requestsInFlight = 0;
+        receivedResponses.clear();
+        partialBodies.clear();
+        lastPrintedCorrelationId = lastCorrelationId;
+    }
+
 
     /**
      * Handle process authentication.
@@ -142,8 +238,8 @@ public class Client {
             try {
                 requestToServer = authHandler.take();
                 if (requestToServer.isEmpty()) continue;
-                serverWriter.writeObject(requestToServer);
-                serverResponse = (Response) serverReader.readObject();
+                serverStream.write(requestToServer);
+                serverResponse = (Response) serverStream.read();
                 OutputDeliver.print(serverResponse.getResponseBody());
             } catch (InvalidClassException | NotSerializableException exception) {
                 OutputDeliver.printError("Произошла ошибка при отправке данных на сервер!");
@@ -159,5 +255,7 @@ public class Client {
             }
         } while (serverResponse == null || !serverResponse.getResponseCode().equals(ResponseCode.OK));
         user = requestToServer.getUser();
+        sessionToken = serverResponse.getSessionToken();
+        isSessionExpired = false;
     }
 }
@@ -5,5 +5,6 @@ public enum ProcessingCode {
     ERROR,
     OBJECT,
     UPDATE_OBJECT,
-    SCRIPT
+    SCRIPT,
+    SCRIPT_BATCH
 }
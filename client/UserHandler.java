@@ -92,6 +92,8 @@ public class UserHandler {
                         userScanner = new Scanner(scriptFile);
                         OutputDeliver.println("Executing the script '" + scriptFile.getName() + "'...");
                         break;
+                    case SCRIPT_BATCH:
+                        return readScriptBatch(userCommand[1], user);
                 }
             } catch (FileNotFoundException exception) {
                 OutputDeliver.printError("Script file not found!");
@@ -127,7 +129,17 @@ public class UserHandler {
                     if (!commandArgument.isEmpty()) throw new CommandUsageException("(use just an info)");
                     break;
                 case "show":
-                    if (!commandArgument.isEmpty()) throw new CommandUsageException("(use just a show)");
+                    if (!commandArgument.isEmpty()) {
+                        String[] pageArguments = commandArgument.split(" ");
+                        if (pageArguments.length > 2) throw new CommandUsageException("[offset] [limit]");
+                        try {
+                            for (String pageArgument : pageArguments) {
+                                if (Integer.parseInt(pageArgument) < 0) throw new CommandUsageException("[offset] [limit]");
+                            }
+                        } catch (NumberFormatException exception) {
+                            throw new CommandUsageException("[offset] [limit]");
+                        }
+                    }
                     break;
                 case "insert":
                     if (commandArgument.isEmpty()) throw new CommandUsageException("<key>");
@@ -144,6 +156,9 @@ public class UserHandler {
                 case "execute_script":
                     if (commandArgument.isEmpty()) throw new CommandUsageException("<file_name>");
                     return ProcessingCode.SCRIPT;
+                case "execute_script_batch":
+                    if (commandArgument.isEmpty()) throw new CommandUsageException("<file_name>");
+                    return ProcessingCode.SCRIPT_BATCH;
                 case "exit":
                     if (!commandArgument.isEmpty()) throw new CommandUsageException("(use just an exit)");
                     break;
@@ -181,6 +196,93 @@ public class UserHandler {
     }
 
 
+    /**
+     * Reads the whole script with nested scripts, so that the server executes it in one transaction.
+     * @param fileName Name of the script file.
+     * @return Request with all commands of the script.
+     * @throws IncorrectInputScriptException When something went wrong in script.
+     * @throws ScriptRecursionException When script calls itself.
+     */
+    private Request readScriptBatch(String fileName, User user)
+            throws IncorrectInputScriptException, ScriptRecursionException {
+        ScriptBatch scriptBatch = new ScriptBatch();
+        try {
+            openScript(fileName);
+        } catch (FileNotFoundException exception) {
+            OutputDeliver.printError("Script file not found!");
+            return new Request(user);
+        }
+        try {
+            addScriptToBatch(scriptBatch, user);
+        } finally {
+            closeScript();
+        }
+        OutputDeliver.println("Sending the script '" + fileName + "' (" + scriptBatch.size() + " commands)...");
+        return new Request("execute_script", fileName, scriptBatch, user);
+    }
+
+    /**
+     * Adds commands of the current script to the batch.
+     * @throws IncorrectInputScriptException When something went wrong in script.
+     * @throws ScriptRecursionException When script calls itself.
+     */
+    private void addScriptToBatch(ScriptBatch scriptBatch, User user)
+            throws IncorrectInputScriptException, ScriptRecursionException {
+        while (userScanner.hasNextLine()) {
+            String userInput = userScanner.nextLine().trim();
+            if (userInput.isEmpty()) continue;
+            String[] userCommand = (userInput + " ").split(" ", 2);
+            userCommand[1] = userCommand[1].trim();
+            switch (processCommand(userCommand[0], userCommand[1])) {
+                case ERROR:
+                    throw new IncorrectInputScriptException();
+                case OBJECT:
+                    scriptBatch.add(new Request(userCommand[0], userCommand[1], generateBandAdd(), user));
+                    break;
+                case UPDATE_OBJECT:
+                    scriptBatch.add(new Request(userCommand[0], userCommand[1], generateBandUpdate(), user));
+                    break;
+                case SCRIPT:
+                case SCRIPT_BATCH:
+                    try {
+                        openScript(userCommand[1]);
+                    } catch (FileNotFoundException exception) {
+                        OutputDeliver.printError("Script file not found!");
+                        throw new IncorrectInputScriptException();
+                    }
+                    try {
+                        addScriptToBatch(scriptBatch, user);
+                    } finally {
+                        closeScript();
+                    }
+                    break;
+                default:
+                    scriptBatch.add(new Request(userCommand[0], userCommand[1], user));
+            }
+        }
+    }
+
+    /**
+     * Makes the script current input.
+     */
+    private void openScript(String fileName) throws FileNotFoundException, ScriptRecursionException {
+        File scriptFile = new File(fileName);
+        if (!scriptFile.exists()) throw new FileNotFoundException();
+        if (!scriptStack.isEmpty() && scriptStack.search(scriptFile) != -1) throw new ScriptRecursionException();
+        scannerStack.push(userScanner);
+        scriptStack.push(scriptFile);
+        userScanner = new Scanner(scriptFile);
+    }
+
+    /**
+     * Returns to the input which was current before the script.
+     */
+    private void closeScript() {
+        userScanner.close();
+        userScanner = scannerStack.pop();
+        scriptStack.pop();
+    }
+
     /**
      * Generates band to add.
      * @return Band to add.
@@ -229,6 +331,18 @@ public class UserHandler {
         );
     }
 
+    /**
+     * @return Is next command going to be read from a script.
+     */
+    public boolean hasScriptInput() {
+        if (!fileMode()) return false;
+        if (userScanner.hasNextLine()) return true;
+        for (int i = 1; i < scannerStack.size(); i++) {
+            if (scannerStack.get(i).hasNextLine()) return true;
+        }
+        return false;
+    }
+
     /**
      * Checks if UserHandler is in file mode now.
      * @return Is UserHandler in file mode now boolean.
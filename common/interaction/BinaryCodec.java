@@ -0,0 +1,236 @@
+package common.interaction;
+
+import common.model.Coordinates;
+import common.model.MusicGenre;
+import common.model.Studio;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocol versions 1-4: messages are written field by field into a reused buffer.
+ * Strings are written as length and UTF-8 bytes, nullable values are preceded by a presence flag.
+ * Since version 2 every message starts with its correlation id, since version 3 response may be sent in chunks,
+ * since version 4 messages carry session token.
+ */
+public class BinaryCodec implements MessageCodec {
+    public static final int FIRST_VERSION = 1;
+    public static final int VERSION = 4;
+    public static final int CHUNKED_VERSION = 3;
+    public static final int SESSION_VERSION = 4;
+    private static final int CORRELATION_ID_VERSION = 2;
+
+    private static final byte REQUEST = 1;
+    private static final byte RESPONSE = 2;
+    private static final byte NO_OBJECT = 0;
+    private static final byte BAND_RAW = 1;
+    private static final byte SCRIPT_BATCH = 2;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int version;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    public BinaryCodec(int version) {
+        this.version = version;
+    }
+
+    public BinaryCodec() {
+        this(VERSION);
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public ByteBuffer encode(Serializable message) throws IOException {
+        buffer.clear();
+        buffer.position(FrameCodec.HEADER_SIZE);
+        if (message instanceof Request) {
+            putByte(REQUEST);
+            putRequest((Request) message);
+        } else if (message instanceof Response) {
+            putByte(RESPONSE);
+            putResponse((Response) message);
+        } else throw new NotSerializableException(message.getClass().getName());
+        buffer.putInt(0, buffer.position() - FrameCodec.HEADER_SIZE);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public Object decode(ByteBuffer body) throws IOException {
+        try {
+            byte type = body.get();
+            if (type == REQUEST) return getRequest(body, false);
+            if (type == RESPONSE) return getResponse(body);
+            throw new StreamCorruptedException("Unknown message type: " + type);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException exception) {
+            throw new StreamCorruptedException("Frame is too short");
+        }
+    }
+
+    private void putRequest(Request request) {
+        if (version >= CORRELATION_ID_VERSION) putLong(request.getCorrelationId());
+        putString(request.getCommandName());
+        putString(request.getCommandStringArgument());
+        Object objectArgument = request.getCommandObjectArgument();
+        if (objectArgument instanceof BandRaw) {
+            putByte(BAND_RAW);
+            putBandRaw((BandRaw) objectArgument);
+        } else if (objectArgument instanceof ScriptBatch) {
+            putByte(SCRIPT_BATCH);
+            ScriptBatch scriptBatch = (ScriptBatch) objectArgument;
+            ensureCapacity(Integer.BYTES);
+            buffer.putInt(scriptBatch.size());
+            for (Request scriptRequest : scriptBatch.getRequests()) putRequest(scriptRequest);
+        } else putByte(NO_OBJECT);
+        User user = request.getUser();
+        putBoolean(user != null);
+        if (user != null) {
+            putString(user.getUsername());
+            putString(user.getPassword());
+        }
+        if (version >= SESSION_VERSION) putString(request.getSessionToken());
+    }
+
+    /**
+     * @param isInScript Is the request a command of a script, scripts can't contain other scripts.
+     */
+    private Request getRequest(ByteBuffer body, boolean isInScript) throws IOException {
+        long correlationId = version >= CORRELATION_ID_VERSION ? body.getLong() : 0;
+        String commandName = getString(body);
+        String commandStringArgument = getString(body);
+        byte objectType = body.get();
+        Serializable objectArgument = null;
+        if (objectType == BAND_RAW) objectArgument = getBandRaw(body);
+        else if (objectType == SCRIPT_BATCH) {
+            if (isInScript) throw new StreamCorruptedException("Nested script batch");
+            objectArgument = getScriptBatch(body);
+        }
+        else if (objectType != NO_OBJECT) throw new StreamCorruptedException("Unknown argument type: " + objectType);
+        User user = body.get() != 0 ? new User(getString(body), getString(body)) : null;
+        Request request = new Request(commandName, commandStringArgument, objectArgument, user);
+        request.setCorrelationId(correlationId);
+        if (version >= SESSION_VERSION) request.setSessionToken(getString(body));
+        return request;
+    }
+
+    private ScriptBatch getScriptBatch(ByteBuffer body) throws IOException {
+        int size = body.getInt();
+        if (size < 0 || size > body.remaining()) throw new StreamCorruptedException("Wrong script size: " + size);
+        ScriptBatch scriptBatch = new ScriptBatch();
+        for (int i = 0; i < size; i++) scriptBatch.add(getRequest(body, true));
+        return scriptBatch;
+    }
+
+    private void putResponse(Response response) {
+        if (version >= CORRELATION_ID_VERSION) putLong(response.getCorrelationId());
+        putByte((byte) response.getResponseCode().ordinal());
+        if (version >= CHUNKED_VERSION) putBoolean(response.hasMore());
+        putString(response.getResponseBody());
+        if (version >= SESSION_VERSION) putString(response.getSessionToken());
+    }
+
+    private Response getResponse(ByteBuffer body) throws IOException {
+        long correlationId = version >= CORRELATION_ID_VERSION ? body.getLong() : 0;
+        ResponseCode responseCode = getEnum(body, ResponseCode.values());
+        boolean hasMore = version >= CHUNKED_VERSION && body.get() != 0;
+        Response response = new Response(responseCode, getString(body), hasMore);
+        response.setCorrelationId(correlationId);
+        if (version >= SESSION_VERSION) response.setSessionToken(getString(body));
+        return response;
+    }
+
+    private void putBandRaw(BandRaw bandRaw) {
+        putString(bandRaw.getName());
+        Coordinates coordinates = bandRaw.getCoordinates();
+        putBoolean(coordinates != null);
+        if (coordinates != null) {
+            putBoolean(coordinates.getX() != null);
+            if (coordinates.getX() != null) {
+                ensureCapacity(Double.BYTES);
+                buffer.putDouble(coordinates.getX());
+            }
+            putLong(coordinates.getY());
+        }
+        putBoolean(bandRaw.getNumberOfParticipants() != null);
+        if (bandRaw.getNumberOfParticipants() != null) putLong(bandRaw.getNumberOfParticipants());
+        putString(bandRaw.getDescription());
+        putByte(bandRaw.getMusicGenre() == null ? -1 : (byte) bandRaw.getMusicGenre().ordinal());
+        putString(bandRaw.getStudio() == null ? null : bandRaw.getStudio().getAddress());
+    }
+
+    private BandRaw getBandRaw(ByteBuffer body) throws IOException {
+        String name = getString(body);
+        Coordinates coordinates = null;
+        if (body.get() != 0) {
+            Double x = body.get() != 0 ? body.getDouble() : null;
+            coordinates = new Coordinates(x, body.getLong());
+        }
+        Long numberOfParticipants = body.get() != 0 ? body.getLong() : null;
+        String description = getString(body);
+        MusicGenre musicGenre = getEnum(body, MusicGenre.values());
+        String studioAddress = getString(body);
+        Studio studio = studioAddress == null ? null : new Studio(studioAddress);
+        return new BandRaw(name, coordinates, numberOfParticipants, description, musicGenre, studio);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            ensureCapacity(Integer.BYTES);
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer body) throws IOException {
+        int length = body.getInt();
+        if (length == -1) return null;
+        if (length < 0 || length > body.remaining())
+            throw new StreamCorruptedException("Wrong string length: " + length);
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    private static <T extends Enum<T>> T getEnum(ByteBuffer body, T[] values) throws IOException {
+        byte ordinal = body.get();
+        if (ordinal == -1) return null;
+        if (ordinal < 0 || ordinal >= values.length)
+            throw new StreamCorruptedException("Wrong enum value: " + ordinal);
+        return values[ordinal];
+    }
+
+    private void putLong(long value) {
+        ensureCapacity(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    private void putBoolean(boolean value) {
+        putByte((byte) (value ? 1 : 0));
+    }
+
+    private void putByte(byte value) {
+        ensureCapacity(1);
+        buffer.put(value);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        ByteBuffer grownBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grownBuffer.put(buffer);
+        buffer = grownBuffer;
+    }
+}
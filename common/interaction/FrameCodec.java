@@ -0,0 +1,73 @@
+package common.interaction;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frame format and protocol negotiation. Every frame is 4-byte length of the body followed by the body.
+ * Client starts with a handshake frame offering its protocol version, server answers with the chosen one.
+ * Connection which starts with a message instead of the handshake uses Java serialization.
+ */
+public class FrameCodec {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    public static final int HANDSHAKE_MAGIC = 0x4C375750;
+    public static final int HANDSHAKE_SIZE = 5;
+    public static final int LATEST_VERSION = BinaryCodec.VERSION;
+
+    /**
+     * Checks length from the frame header.
+     * @param length Length of the frame body.
+     * @throws StreamCorruptedException When length is out of bounds.
+     */
+    public static void checkLength(int length) throws StreamCorruptedException {
+        if (length <= 0 || length > MAX_FRAME_SIZE)
+            throw new StreamCorruptedException("Wrong frame length: " + length);
+    }
+
+    /**
+     * @param version Protocol version to be offered or chosen.
+     * @return Whole handshake frame.
+     */
+    public static ByteBuffer createHandshake(int version) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + HANDSHAKE_SIZE);
+        frame.putInt(HANDSHAKE_SIZE).putInt(HANDSHAKE_MAGIC).put((byte) version);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @param body Body of the received frame.
+     * @return Is this frame a handshake.
+     */
+    public static boolean isHandshake(ByteBuffer body) {
+        return body.remaining() == HANDSHAKE_SIZE && body.getInt(body.position()) == HANDSHAKE_MAGIC;
+    }
+
+    /**
+     * @param body Body of the handshake frame.
+     * @return Protocol version written in the handshake.
+     */
+    public static int getHandshakeVersion(ByteBuffer body) {
+        return body.get(body.position() + Integer.BYTES);
+    }
+
+    /**
+     * @param offeredVersion Version offered by the client.
+     * @return Version supported by both sides.
+     */
+    public static int negotiateVersion(int offeredVersion) {
+        return Math.max(SerializationCodec.VERSION, Math.min(offeredVersion, LATEST_VERSION));
+    }
+
+    /**
+     * @param version Protocol version.
+     * @return New codec of this version.
+     * @throws StreamCorruptedException When version is unknown.
+     */
+    public static MessageCodec createCodec(int version) throws StreamCorruptedException {
+        if (version >= BinaryCodec.FIRST_VERSION && version <= BinaryCodec.VERSION) return new BinaryCodec(version);
+        if (version == SerializationCodec.VERSION) return new SerializationCodec();
+        throw new StreamCorruptedException("Unknown protocol version: " + version);
+    }
+}
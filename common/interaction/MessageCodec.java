@@ -0,0 +1,30 @@
+package common.interaction;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts messages to frames and back. Instance belongs to one connection and is not thread-safe.
+ */
+public interface MessageCodec {
+    /**
+     * @return Version of the protocol negotiated at connect time.
+     */
+    int getVersion();
+
+    /**
+     * @param message Message to be sent.
+     * @return Buffer with the whole frame, ready to be read. It may be reused by the next call.
+     * @throws IOException When message can't be encoded.
+     */
+    ByteBuffer encode(Serializable message) throws IOException;
+
+    /**
+     * @param body Body of the received frame.
+     * @return Received message.
+     * @throws IOException When body is corrupted.
+     * @throws ClassNotFoundException When class of the message is unknown.
+     */
+    Object decode(ByteBuffer body) throws IOException, ClassNotFoundException;
+}
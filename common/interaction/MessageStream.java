@@ -0,0 +1,100 @@
+package common.interaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Blocking connection exchanging framed messages with the negotiated codec.
+ */
+public class MessageStream {
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private MessageCodec codec;
+    private byte[] readBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private ByteBuffer pendingBody;
+
+    private MessageStream(InputStream inputStream, OutputStream outputStream) {
+        this.inputStream = new DataInputStream(inputStream);
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Client side of the negotiation.
+     * @param inputStream Stream from the server.
+     * @param outputStream Stream to the server.
+     * @param version Protocol version offered to the server.
+     * @return Stream using the version chosen by the server.
+     * @throws IOException When server answered not with a handshake.
+     */
+    public static MessageStream connect(InputStream inputStream, OutputStream outputStream, int version)
+            throws IOException {
+        MessageStream messageStream = new MessageStream(inputStream, outputStream);
+        messageStream.writeFrame(FrameCodec.createHandshake(version));
+        ByteBuffer body = messageStream.readFrame();
+        if (!FrameCodec.isHandshake(body)) throw new StreamCorruptedException("Handshake expected");
+        messageStream.codec = FrameCodec.createCodec(FrameCodec.getHandshakeVersion(body));
+        return messageStream;
+    }
+
+    /**
+     * Server side of the negotiation.
+     * @param inputStream Stream from the client.
+     * @param outputStream Stream to the client.
+     * @return Stream using the version supported by both sides.
+     * @throws IOException When stream is broken.
+     */
+    public static MessageStream accept(InputStream inputStream, OutputStream outputStream) throws IOException {
+        MessageStream messageStream = new MessageStream(inputStream, outputStream);
+        ByteBuffer body = messageStream.readFrame();
+        if (FrameCodec.isHandshake(body)) {
+            int version = FrameCodec.negotiateVersion(FrameCodec.getHandshakeVersion(body));
+            messageStream.codec = FrameCodec.createCodec(version);
+            messageStream.writeFrame(FrameCodec.createHandshake(version));
+        } else {
+            messageStream.codec = new SerializationCodec();
+            messageStream.pendingBody = ByteBuffer.wrap(body.array().clone(), 0, body.limit());
+        }
+        return messageStream;
+    }
+
+    /**
+     * @return Negotiated protocol version.
+     */
+    public int getVersion() {
+        return codec.getVersion();
+    }
+
+    /**
+     * @param message Message to be sent.
+     * @throws IOException When stream is broken.
+     */
+    public void write(Serializable message) throws IOException {
+        writeFrame(codec.encode(message));
+    }
+
+    /**
+     * @return Received message.
+     * @throws IOException When stream is broken.
+     * @throws ClassNotFoundException When class of the message is unknown.
+     */
+    public Object read() throws IOException, ClassNotFoundException {
+        ByteBuffer body = pendingBody != null ? pendingBody : readFrame();
+        pendingBody = null;
+        return codec.decode(body);
+    }
+
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        outputStream.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        outputStream.flush();
+    }
+
+    private ByteBuffer readFrame() throws IOException {
+        int length = inputStream.readInt();
+        FrameCodec.checkLength(length);
+        if (readBuffer.length < length) readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+        inputStream.readFully(readBuffer, 0, length);
+        return ByteBuffer.wrap(readBuffer, 0, length);
+    }
+}
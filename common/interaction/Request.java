@@ -10,6 +10,8 @@ public class Request implements Serializable {
     private String commandStringArgument;
     private Serializable commandObjectArgument;
     private User user;
+    private long correlationId;
+    private String sessionToken;
 
     public Request(String commandName, String commandStringArgument, Serializable commandObjectArgument, User user) {
         this.commandName = commandName;
@@ -55,6 +57,34 @@ public class Request implements Serializable {
         return this.commandObjectArgument;
     }
 
+    /**
+     * @return Id which is copied to the response to this request.
+     */
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @param correlationId Id which is copied to the response to this request.
+     */
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * @return Token of the session issued at login or null, if request carries credentials.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * @param sessionToken Token of the session issued at login.
+     */
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
     /**
      * @return Is this request empty.
      */
@@ -8,10 +8,21 @@ import java.io.Serializable;
 public class Response implements Serializable {
     private ResponseCode responseCode;
     private String responseBody;
+    private long correlationId;
+    private boolean hasMore;
+    private String sessionToken;
 
     public Response(ResponseCode responseCode, String responseBody) {
+        this(responseCode, responseBody, false);
+    }
+
+    /**
+     * @param hasMore Is this only a chunk of the response, followed by other chunks.
+     */
+    public Response(ResponseCode responseCode, String responseBody, boolean hasMore) {
         this.responseCode = responseCode;
         this.responseBody = responseBody;
+        this.hasMore = hasMore;
     }
 
     /**
@@ -28,6 +39,41 @@ public class Response implements Serializable {
         return this.responseBody;
     }
 
+    /**
+     * @return Id of the request this response answers.
+     */
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @param correlationId Id of the request this response answers.
+     */
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * @return Is this only a chunk of the response, followed by other chunks.
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return Token of the session issued by login or registration, null otherwise.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * @param sessionToken Token of the session issued by login or registration.
+     */
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
     @Override
     public String toString() {
         return "Response[" + responseCode + ", " + responseBody + "]";
@@ -7,5 +7,6 @@ public enum ResponseCode {
     OK,
     ERROR,
     CLIENT_EXIT,
-    SERVER_EXIT
+    SERVER_EXIT,
+    SESSION_EXPIRED
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package common.interaction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Commands of a script, which are sent to the server at once.
+ */
+public class ScriptBatch implements Serializable {
+    private List<Request> requests = new ArrayList<>();
+
+    /**
+     * @param request Command of the script.
+     */
+    public void add(Request request) {
+        requests.add(request);
+    }
+
+    /**
+     * @return Commands of the script in order.
+     */
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return Amount of commands.
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptBatch[" + requests.size() + " commands]";
+    }
+}
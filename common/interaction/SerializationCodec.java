@@ -0,0 +1,48 @@
+package common.interaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Protocol version 0: messages are written with Java serialization.
+ * Used with clients which don't send a handshake.
+ */
+public class SerializationCodec implements MessageCodec {
+    public static final int VERSION = 0;
+
+    /**
+     * Limits the object graph of a message, so a deeply nested stream is rejected
+     * before it overflows the stack of the reading thread.
+     */
+    private static final ObjectInputFilter MESSAGE_FILTER =
+            ObjectInputFilter.Config.createFilter("maxdepth=64;maxrefs=10000000");
+
+    private final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public ByteBuffer encode(Serializable message) throws IOException {
+        byteStream.reset();
+        byteStream.write(new byte[FrameCodec.HEADER_SIZE]);
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(byteStream)) {
+            objectStream.writeObject(message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(byteStream.toByteArray());
+        frame.putInt(0, frame.limit() - FrameCodec.HEADER_SIZE);
+        return frame;
+    }
+
+    @Override
+    public Object decode(ByteBuffer body) throws IOException, ClassNotFoundException {
+        InputStream bodyStream = new ByteArrayInputStream(body.array(), body.arrayOffset() + body.position(),
+                body.remaining());
+        try (ObjectInputStream objectStream = new ObjectInputStream(bodyStream)) {
+            objectStream.setObjectInputFilter(MESSAGE_FILTER);
+            return objectStream.readObject();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.Serializable;
  * Class for get username and password.
  */
 public class User implements Serializable {
+    private long id = -1;
     private String username;
     private String password;
 
@@ -14,6 +15,21 @@ public class User implements Serializable {
         this.password = password;
     }
 
+    /**
+     * @param id Id of the user in the database.
+     */
+    public User(long id, String username, String password) {
+        this(username, password);
+        this.id = id;
+    }
+
+    /**
+     * @return Id of the user in the database or -1, if the user isn't authenticated.
+     */
+    public long getId() {
+        return this.id;
+    }
+
     /**
      * @return Username.
      */
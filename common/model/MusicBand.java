@@ -10,6 +10,8 @@ import java.time.format.DateTimeFormatter;
  * Main character. Is stored in the collection.
  */
 public class MusicBand implements Comparable<MusicBand>, Serializable {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
     private static Integer count = 0;
     private Integer id; //Значение поля должно быть больше 0, Значение этого поля должно быть уникальным, Значение этого поля должно генерироваться автоматически
     private String name; //Поле не может быть null, Строка не может быть пустой
@@ -47,6 +49,13 @@ public class MusicBand implements Comparable<MusicBand>, Serializable {
     public User getOwner() {
         return this.owner;
     }
+
+    /**
+     * @return ID of the owner of the band in the database.
+     */
+    public long getOwnerId() {
+        return this.owner.getId();
+    }
     /**
      * @return Name of the band.
      */
@@ -107,21 +116,30 @@ public class MusicBand implements Comparable<MusicBand>, Serializable {
         else return 1;
     }
 
+    /**
+     * Writes information about the band without creating intermediate strings.
+     * @param info Builder to write into.
+     * @return The same builder.
+     */
+    public StringBuilder appendTo(StringBuilder info) {
+        info.append("Music band №").append(id);
+        info.append(" [").append(owner.getUsername()).append(' ');
+        DATE_FORMATTER.formatTo(creationDate, info);
+        info.append(" в ");
+        TIME_FORMATTER.formatTo(creationDate, info);
+        info.append(']');
+        info.append("\n Name: ").append(name);
+        info.append("\n Coordinates: X:").append(coordinates.getX().doubleValue()).append(", Y:").append(coordinates.getY());
+        info.append("\n Number of participants: ").append(numberOfParticipants.longValue());
+        info.append("\n Description: ").append(description);
+        info.append("\n Music Genre: ").append(genre);
+        info.append("\n Studio: ").append(studio);
+        return info;
+    }
+
     @Override
     public String toString() {
-        String info = "";
-        info += "Music band №" + id;
-        info += " [" + owner.getUsername() + " " + creationDate.format(DateTimeFormatter.ofPattern("dd.MM.yyyy")) +
-                " в " + creationDate.format(DateTimeFormatter.ofPattern("HH:mm")) + "]";
-        info += "\n Name: " + name;
-        info += "\n Coordinates: " + coordinates;
-        info += "\n Number of participants: " + numberOfParticipants;
-        info += "\n Description: " + description;
-        info += "\n Music Genre: " + genre;
-        if (studio != null) {
-            info += "\n Studio: " + studio;
-        } else info += "\n Studio: null";
-        return info;
+        return appendTo(new StringBuilder()).toString();
     }
 
     @Override
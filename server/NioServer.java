@@ -0,0 +1,422 @@
+package server;
+
+import common.exceptions.OpeningServerSocketException;
+import common.interaction.BinaryCodec;
+import common.interaction.FrameCodec;
+import common.interaction.MessageCodec;
+import common.interaction.Request;
+import common.interaction.Response;
+import common.interaction.ResponseCode;
+import common.interaction.SerializationCodec;
+import common.utility.OutputDeliver;
+import server.utility.ConnectionHandler;
+import server.utility.RequestExecutor;
+import server.utility.RequestPipeline;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event-loop server. Connections are served by a few selector threads,
+ * complete requests are executed by the request executor.
+ */
+public class NioServer {
+    private static final int RETAINED_BUFFER_SIZE = 4096;
+    private static final int MAX_OUTBOUND_BYTES = 1 << 20;
+    private static final long OUTBOUND_TIMEOUT = 30_000;
+
+    private final int port;
+    private final int maxClients;
+    private final RequestExecutor requestExecutor;
+    private final IoLoop[] ioLoops;
+    private final AtomicInteger connectedClients = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean isStopped;
+
+    public NioServer(int port, int maxClients, int ioThreads, RequestExecutor requestExecutor) {
+        this.port = port;
+        this.maxClients = maxClients;
+        this.requestExecutor = requestExecutor;
+        this.ioLoops = new IoLoop[ioThreads];
+    }
+
+    /**
+     * Begins server operation.
+     */
+    public void run() {
+        Thread[] ioThreads = new Thread[ioLoops.length];
+        try {
+            openServerSocket();
+            for (int i = 0; i < ioLoops.length; i++) {
+                ioLoops[i] = new IoLoop(Selector.open());
+                ioThreads[i] = new Thread(ioLoops[i], "nio-server-io-" + i);
+                ioThreads[i].start();
+            }
+            OutputDeliver.println("Прослушивание порта '" + port + "'...");
+            int nextLoop = 0;
+            while (!isStopped) {
+                SocketChannel clientChannel = serverChannel.accept();
+                if (connectedClients.incrementAndGet() > maxClients) {
+                    connectedClients.decrementAndGet();
+                    clientChannel.close();
+                    OutputDeliver.printError("Превышено максимальное количество клиентов!");
+                    continue;
+                }
+                clientChannel.configureBlocking(false);
+                ioLoops[nextLoop].register(clientChannel);
+                nextLoop = (nextLoop + 1) % ioLoops.length;
+            }
+        } catch (OpeningServerSocketException exception) {
+            OutputDeliver.printError("Сервер не может быть запущен!");
+        } catch (IOException exception) {
+            if (!isStopped) OutputDeliver.printError("Произошла ошибка при соединении с клиентом!");
+        } finally {
+            stop();
+            awaitTermination(ioThreads);
+        }
+        OutputDeliver.println("Работа сервера завершена.");
+    }
+
+    /**
+     * Finishes server operation.
+     */
+    public synchronized void stop() {
+        if (isStopped) return;
+        isStopped = true;
+        OutputDeliver.println("Завершение работы с уже подключенными клиентами...");
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException exception) {
+            OutputDeliver.printError("Произошла ошибка при завершении работы сервера!");
+        }
+        for (IoLoop ioLoop : ioLoops) {
+            if (ioLoop != null) ioLoop.selector.wakeup();
+        }
+    }
+
+    private void awaitTermination(Thread[] ioThreads) {
+        try {
+            for (Thread ioThread : ioThreads) {
+                if (ioThread != null) ioThread.join();
+            }
+        } catch (InterruptedException exception) {
+            OutputDeliver.printError("Произошла ошибка при завершении работы с уже подключенными клиентами!");
+        }
+    }
+
+    /**
+     * Open server socket.
+     */
+    private void openServerSocket() throws OpeningServerSocketException {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+        } catch (IllegalArgumentException exception) {
+            OutputDeliver.printError("Порт '" + port + "' находится за пределами возможных значений!");
+            throw new OpeningServerSocketException();
+        } catch (IOException exception) {
+            OutputDeliver.printError("Произошла ошибка при попытке использовать порт '" + port + "'!");
+            throw new OpeningServerSocketException();
+        }
+    }
+
+    /**
+     * Negotiates protocol on the first frame, then queues requests to the pipeline of the session.
+     * Response is sent back by the loop of the session.
+     */
+    private void dispatch(ClientSession session, ByteBuffer requestBody) {
+        Request request;
+        try {
+            if (session.codec == null) {
+                if (FrameCodec.isHandshake(requestBody)) {
+                    int version = FrameCodec.negotiateVersion(FrameCodec.getHandshakeVersion(requestBody));
+                    session.codec = FrameCodec.createCodec(version);
+                    createPipeline(session);
+                    session.ioLoop.enqueue(session, FrameCodec.createHandshake(version));
+                    session.ioLoop.write(session);
+                    return;
+                }
+                session.codec = new SerializationCodec();
+                createPipeline(session);
+            }
+            request = (Request) session.codec.decode(requestBody);
+        } catch (IOException | ClassNotFoundException | ClassCastException exception) {
+            OutputDeliver.printError("Произошла ошибка при чтении полученных данных!");
+            if (session.codec == null) {
+                session.codec = new SerializationCodec();
+                createPipeline(session);
+            }
+            session.ioLoop.send(session, new Response(ResponseCode.ERROR, "Сервер не смог прочитать запрос.\n"));
+            return;
+        } catch (RuntimeException exception) {
+            OutputDeliver.printError("Полученный запрос не может быть обработан!");
+            if (session.codec == null) {
+                session.codec = new SerializationCodec();
+                createPipeline(session);
+            }
+            session.ioLoop.send(session, new Response(ResponseCode.ERROR, "Сервер не смог обработать запрос.\n"));
+            return;
+        }
+        session.pipeline.submit(request);
+    }
+
+    private void createPipeline(ClientSession session) {
+        boolean isChunked = session.codec.getVersion() >= BinaryCodec.CHUNKED_VERSION;
+        session.pipeline = new RequestPipeline(requestExecutor, isChunked, response -> {
+            if (response.hasMore() && !awaitOutboundCapacity(session)) return;
+            session.ioLoop.send(session, response);
+        });
+    }
+
+    /**
+     * Holds back the worker producing chunks while the client doesn't read earlier ones.
+     * @return Can the chunk be sent, connection is closed when client doesn't read for too long.
+     */
+    private boolean awaitOutboundCapacity(ClientSession session) {
+        long deadline = System.currentTimeMillis() + OUTBOUND_TIMEOUT;
+        synchronized (session) {
+            while (session.channel.isOpen()
+                    && (session.unsentResponses > 0 || session.outboundBytes > MAX_OUTBOUND_BYTES)) {
+                long timeLeft = deadline - System.currentTimeMillis();
+                if (timeLeft <= 0) {
+                    OutputDeliver.printError("Клиент слишком долго не принимает ответ!");
+                    session.ioLoop.execute(() -> session.ioLoop.close(session));
+                    return false;
+                }
+                try {
+                    session.wait(timeLeft);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return session.channel.isOpen();
+        }
+    }
+
+    /**
+     * State of one connection. Reading is paused while too many of its requests are without response,
+     * chunks are held back while too many bytes aren't sent. Buffers are reused while they are small.
+     */
+    private static class ClientSession {
+        private final SocketChannel channel;
+        private final IoLoop ioLoop;
+        private final ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_SIZE);
+        private ByteBuffer body;
+        private boolean isReadingBody;
+        private ByteBuffer outbound;
+        private MessageCodec codec;
+        private RequestPipeline pipeline;
+        private SelectionKey key;
+        private boolean closeAfterWrite;
+        private boolean stopAfterWrite;
+        private int unsentResponses;
+        private int outboundBytes;
+
+        private ClientSession(SocketChannel channel, IoLoop ioLoop) {
+            this.channel = channel;
+            this.ioLoop = ioLoop;
+        }
+    }
+
+    /**
+     * Selector thread serving a part of connections.
+     */
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void register(SocketChannel channel) {
+            execute(() -> {
+                ClientSession session = new ClientSession(channel, this);
+                try {
+                    session.key = channel.register(selector, SelectionKey.OP_READ, session);
+                    OutputDeliver.println("Соединение с клиентом установлено.");
+                } catch (IOException exception) {
+                    close(session);
+                }
+            });
+        }
+
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Called by workers: response is encoded and written by the loop thread.
+         */
+        private void send(ClientSession session, Response response) {
+            synchronized (session) {
+                session.unsentResponses++;
+            }
+            execute(() -> {
+                synchronized (session) {
+                    session.unsentResponses--;
+                    session.notifyAll();
+                }
+                if (!session.channel.isOpen()) return;
+                try {
+                    enqueue(session, session.codec.encode(response));
+                } catch (IOException exception) {
+                    OutputDeliver.printError("Произошла ошибка при отправке данных на клиент!");
+                    close(session);
+                    return;
+                }
+                if (response.getResponseCode() == ResponseCode.CLIENT_EXIT) session.closeAfterWrite = true;
+                if (response.getResponseCode() == ResponseCode.SERVER_EXIT) session.stopAfterWrite = true;
+                write(session);
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isStopped) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ClientSession session = (ClientSession) key.attachment();
+                        if (key.isValid() && key.isReadable()) read(session);
+                        if (key.isValid() && key.isWritable()) write(session);
+                    }
+                }
+            } catch (IOException exception) {
+                OutputDeliver.printError("Произошла ошибка в цикле обработки соединений!");
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof ClientSession) close((ClientSession) key.attachment());
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void read(ClientSession session) {
+            try {
+                if (!session.isReadingBody) {
+                    if (session.channel.read(session.header) < 0) {
+                        close(session);
+                        return;
+                    }
+                    if (session.header.hasRemaining()) return;
+                    session.header.flip();
+                    int length = session.header.getInt();
+                    FrameCodec.checkLength(length);
+                    if (session.body == null || session.body.capacity() < length) session.body = ByteBuffer.allocate(length);
+                    session.body.clear();
+                    session.body.limit(length);
+                    session.isReadingBody = true;
+                }
+                if (session.channel.read(session.body) < 0) {
+                    close(session);
+                    return;
+                }
+                if (session.body.hasRemaining()) return;
+                session.body.flip();
+                session.isReadingBody = false;
+                session.header.clear();
+                dispatch(session, session.body);
+                updateInterest(session);
+                if (session.body.capacity() > RETAINED_BUFFER_SIZE) session.body = null;
+            } catch (IOException exception) {
+                OutputDeliver.println("Связь с клиентом была разорвана!");
+                close(session);
+            }
+        }
+
+        /**
+         * Appends frame to the outgoing buffer of the session, the buffer grows at least twice.
+         */
+        private void enqueue(ClientSession session, ByteBuffer frame) {
+            if (session.outbound == null) {
+                session.outbound = ByteBuffer.allocate(Math.max(frame.remaining(), RETAINED_BUFFER_SIZE));
+            } else if (session.outbound.remaining() < frame.remaining()) {
+                int capacity = Math.max(session.outbound.capacity() * 2, session.outbound.position() + frame.remaining());
+                ByteBuffer grownBuffer = ByteBuffer.allocate(capacity);
+                session.outbound.flip();
+                grownBuffer.put(session.outbound);
+                session.outbound = grownBuffer;
+            }
+            session.outbound.put(frame);
+            updateOutboundBytes(session);
+        }
+
+        private void updateOutboundBytes(ClientSession session) {
+            synchronized (session) {
+                session.outboundBytes = session.outbound == null ? 0 : session.outbound.position();
+                session.notifyAll();
+            }
+        }
+
+        private void write(ClientSession session) {
+            try {
+                if (session.outbound != null) {
+                    session.outbound.flip();
+                    session.channel.write(session.outbound);
+                    if (session.outbound.hasRemaining()) {
+                        session.outbound.compact();
+                        updateOutboundBytes(session);
+                        updateInterest(session);
+                        return;
+                    }
+                    session.outbound = null;
+                    updateOutboundBytes(session);
+                }
+                if (session.stopAfterWrite) {
+                    close(session);
+                    stop();
+                } else if (session.closeAfterWrite) {
+                    close(session);
+                } else {
+                    updateInterest(session);
+                }
+            } catch (IOException exception) {
+                OutputDeliver.printError("Произошла ошибка при отправке данных на клиент!");
+                close(session);
+            }
+        }
+
+        /**
+         * Reads while the pipeline has capacity, writes while the outgoing buffer isn't empty.
+         */
+        private void updateInterest(ClientSession session) {
+            if (!session.key.isValid()) return;
+            int interestOps = 0;
+            if (session.pipeline == null || session.pipeline.size() < ConnectionHandler.MAX_REQUESTS_IN_FLIGHT)
+                interestOps |= SelectionKey.OP_READ;
+            if (session.outbound != null) interestOps |= SelectionKey.OP_WRITE;
+            session.key.interestOps(interestOps);
+        }
+
+        private void close(ClientSession session) {
+            if (!session.channel.isOpen()) return;
+            if (session.key != null) session.key.cancel();
+            try {
+                session.channel.close();
+                synchronized (session) {
+                    session.notifyAll();
+                }
+                OutputDeliver.println("Клиент отключен от сервера.");
+            } catch (IOException exception) {
+                OutputDeliver.printError("Произошла ошибка при попытке завершить соединение с клиентом!");
+            }
+            connectedClients.decrementAndGet();
+        }
+    }
+}
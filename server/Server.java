@@ -4,7 +4,7 @@ import common.exceptions.ClosingSocketException;
 import common.exceptions.ConnectionErrorException;
 import common.exceptions.OpeningServerSocketException;
 import common.utility.OutputDeliver;
-import server.utility.CommandManager;
+import server.utility.RequestExecutor;
 import server.utility.ConnectionHandler;
 
 import java.io.*;
@@ -18,15 +18,23 @@ import java.util.concurrent.TimeUnit;
 public class Server {
     private int port;
     private ServerSocket serverSocket;
-    private CommandManager commandManager;
+    private RequestExecutor requestExecutor;
     private boolean isStopped;
-    private ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
+    private ExecutorService connectionExecutor;
     private Semaphore semaphore;
 
-    public Server(int port, int maxClients, CommandManager commandManager) {
+    public Server(int port, int maxClients, RequestExecutor requestExecutor) {
+        this(port, maxClients, requestExecutor, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * @param connectionExecutor Executor running one ConnectionHandler per client.
+     */
+    public Server(int port, int maxClients, RequestExecutor requestExecutor, ExecutorService connectionExecutor) {
         this.port = port;
-        this.commandManager = commandManager;
+        this.requestExecutor = requestExecutor;
         this.semaphore = new Semaphore(maxClients);
+        this.connectionExecutor = connectionExecutor;
     }
 
     /**
@@ -40,14 +48,14 @@ public class Server {
                     acquireConnection();
                     if (isStopped()) throw new ConnectionErrorException();
                     Socket clientSocket = connectToClient();
-                    cachedThreadPool.submit(new ConnectionHandler(this, clientSocket, commandManager));
+                    connectionExecutor.submit(new ConnectionHandler(this, clientSocket, requestExecutor));
                 } catch (ConnectionErrorException exception) {
                     if (!isStopped()) {
                         OutputDeliver.printError("Произошла ошибка при соединении с клиентом!");
                     } else break;
                 }
             }
-            cachedThreadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            connectionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
             OutputDeliver.println("Работа сервера завершена.");
         } catch (OpeningServerSocketException exception) {
             OutputDeliver.printError("Сервер не может быть запущен!");
@@ -67,6 +75,14 @@ public class Server {
         }
     }
 
+    /**
+     * Runs a task of a connection on the executor of connections.
+     * @param task Task, e.g. writer of responses.
+     */
+    public void execute(Runnable task) {
+        connectionExecutor.execute(task);
+    }
+
     /**
      * Release connection.
      */
@@ -81,7 +97,7 @@ public class Server {
         try {
             if (serverSocket == null) throw new ClosingSocketException();
             isStopped = true;
-            cachedThreadPool.shutdown();
+            connectionExecutor.shutdown();
             serverSocket.close();
             OutputDeliver.println("Завершение работы с уже подключенными клиентами...");
         } catch (ClosingSocketException exception) {
@@ -6,6 +6,14 @@ import common.utility.OutputDeliver;
 import server.utility.*;
 import server.commands.*;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Main server class. Creates all server instances.
  * @author Smirnov Danil.
@@ -13,6 +21,24 @@ import server.commands.*;
 public class ServerApp {
     public static int port;
     public static final int MAX_CLIENTS = 1000;
+    // Virtual threads are cheap, so connections are limited only by memory and file descriptors.
+    public static final int MAX_VIRTUAL_CLIENTS = Integer.MAX_VALUE;
+    public static final int MAX_DATABASE_CONNECTIONS = 20;
+    public static final int DATABASE_FETCH_SIZE = 1000;
+    public static final int NIO_IO_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int REQUEST_WORKERS = MAX_DATABASE_CONNECTIONS;
+    public static final int REQUEST_QUEUE_CAPACITY = 1000;
+    public static final long SESSION_LIFETIME = 30 * 60 * 1000;
+    public static final long SESSION_SWEEP_PERIOD = 60 * 1000;
+    public static final long CONSISTENCY_CHECK_PERIOD = 60 * 1000;
+    public static final int MAX_NODE_ID_LENGTH = 63;
+    public static final String WRITE_BEHIND_JOURNAL = "write-behind.journal";
+    public static final int WRITE_BEHIND_BATCH_SIZE = 500;
+    public static final int WRITE_BEHIND_MAX_PENDING = 100000;
+    public static final long WRITE_BEHIND_FLUSH_PERIOD = 1000;
+    private static String serverMode = "threads";
+    private static String writeMode = "write-through";
+    private static String nodeId = "lab7-" + UUID.randomUUID().toString().substring(0, 8);
     private static String databaseUsername = "postgres";
     private static String databaseHost;
     private static String databasePassword;
@@ -20,11 +46,30 @@ public class ServerApp {
 
     public static void main(String[] args) {
         if (!initialize(args)) return;
-        DatabaseHandler databaseHandler = new DatabaseHandler(databaseAddress, databaseUsername, databasePassword);
+        DatabaseHandler databaseHandler = new DatabaseHandler(databaseAddress, databaseUsername, databasePassword,
+                MAX_DATABASE_CONNECTIONS, nodeId);
+        OutputDeliver.println("Идентификатор сервера: " + nodeId + ".");
         DatabaseUserManager databaseUserManager = new DatabaseUserManager(databaseHandler);
-        DatabaseCollectionManager databaseCollectionManager = new DatabaseCollectionManager(databaseHandler, databaseUserManager);
+        DatabaseCollectionManager databaseCollectionManager = new DatabaseCollectionManager(databaseHandler,
+                DATABASE_FETCH_SIZE);
+        WriteBehindQueue writeBehindQueue = null;
+        if (writeMode.equals("write-behind")) {
+            writeBehindQueue = new WriteBehindQueue(databaseHandler, databaseCollectionManager,
+                    Paths.get(WRITE_BEHIND_JOURNAL), WRITE_BEHIND_BATCH_SIZE, WRITE_BEHIND_MAX_PENDING,
+                    WRITE_BEHIND_FLUSH_PERIOD);
+            try {
+                writeBehindQueue.open();
+            } catch (IOException exception) {
+                OutputDeliver.printError("Не удалось открыть журнал отложенной записи '" + WRITE_BEHIND_JOURNAL + "'!");
+                databaseHandler.closeConnection();
+                return;
+            }
+            databaseCollectionManager.setWriteBehindQueue(writeBehindQueue);
+        }
         CollectionManager collectionManager = new CollectionManager(databaseCollectionManager);
-        CommandManager commandManager = new CommandManager(
+        if (writeBehindQueue != null) writeBehindQueue.start(collectionManager);
+        SessionManager sessionManager = new SessionManager(SESSION_LIFETIME);
+        CommandManager commandManager = new CommandManager(databaseHandler, collectionManager,
                 new HelpCommand(),
                 new InfoCommand(collectionManager),
                 new ShowCommand(collectionManager),
@@ -40,24 +85,79 @@ public class ServerApp {
                 new AverageOfNumberParticipantsCommand(collectionManager, databaseCollectionManager),
                 new FilterCommand(collectionManager),
                 new FieldsOfDescriptionsCommand(collectionManager),
-                new LoginCommand(databaseUserManager),
-                new RegisterCommand(databaseUserManager));
-        Server server = new Server(port, MAX_CLIENTS, commandManager);
-        server.run();
+                new LoginCommand(databaseUserManager, sessionManager),
+                new RegisterCommand(databaseUserManager, sessionManager));
+        RequestExecutor requestExecutor = new RequestExecutor(REQUEST_WORKERS, REQUEST_QUEUE_CAPACITY, commandManager,
+                sessionManager, databaseUserManager);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        DatabaseChangeListener changeListener = new DatabaseChangeListener(databaseHandler, databaseCollectionManager,
+                collectionManager);
+        scheduler.scheduleWithFixedDelay(sessionManager::removeExpiredSessions,
+                SESSION_SWEEP_PERIOD, SESSION_SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+        if (!changeListener.start()) scheduler.scheduleWithFixedDelay(
+                new CollectionConsistencyChecker(collectionManager, databaseCollectionManager),
+                CONSISTENCY_CHECK_PERIOD, CONSISTENCY_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+        if (serverMode.equals("nio")) {
+            NioServer server = new NioServer(port, MAX_CLIENTS, NIO_IO_THREADS, requestExecutor);
+            server.run();
+        } else if (serverMode.equals("virtual")) {
+            Server server = new Server(port, MAX_VIRTUAL_CLIENTS, requestExecutor, createVirtualThreadExecutor());
+            server.run();
+        } else {
+            Server server = new Server(port, MAX_CLIENTS, requestExecutor);
+            server.run();
+        }
+        changeListener.stop();
+        scheduler.shutdownNow();
+        requestExecutor.shutdown();
+        if (writeBehindQueue != null) writeBehindQueue.shutdown();
         databaseHandler.closeConnection();
     }
 
+    /**
+     * Creates executor starting a virtual thread per task.
+     * Virtual threads appear in Java 21, so on older JVM cached thread pool is used.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            OutputDeliver.printError("Виртуальные потоки не поддерживаются, используются обычные потоки!");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
     /**
      * Controls initialization.
      */
     private static boolean initialize(String[] args) {
         try {
-            if (args.length != 3) throw new WrongAmountOfElementsException();
+            if (args.length < 3 || args.length > 6) throw new WrongAmountOfElementsException();
             port = Integer.parseInt(args[0]);
             if (port < 0) throw new DeclaredLimitException();
             databaseHost = args[1];
             databasePassword = args[2];
             databaseAddress = "jdbc:postgresql://" + databaseHost + ":5432/postgres";
+            if (args.length >= 4) serverMode = args[3];
+            if (args.length >= 5) nodeId = args[4];
+            if (args.length == 6) writeMode = args[5];
+            if (nodeId.isEmpty() || nodeId.length() > MAX_NODE_ID_LENGTH || nodeId.contains(":")) {
+                OutputDeliver.printError("Идентификатор сервера должен содержать от 1 до " + MAX_NODE_ID_LENGTH +
+                        " символов без ':'!");
+                return false;
+            }
+            if (!serverMode.equals("threads") && !serverMode.equals("nio") && !serverMode.equals("virtual")) {
+                OutputDeliver.printError("Неизвестный режим работы сервера '" + serverMode + "'!");
+                return false;
+            }
+            if (!writeMode.equals("write-through") && !writeMode.equals("write-behind")) {
+                OutputDeliver.printError("Неизвестный режим записи '" + writeMode + "'!");
+                return false;
+            }
             return true;
         } catch (WrongAmountOfElementsException exception) {
             String jarName = new java.io.File(ServerApp.class.getProtectionDomain()
@@ -65,7 +165,7 @@ public class ServerApp {
                     .getLocation()
                     .getPath())
                     .getName();
-            OutputDeliver.println("Использование: 'java -jar " + jarName + " <port> <db_host> <db_password>'");
+            OutputDeliver.println("Использование: 'java -jar " + jarName + " <port> <db_host> <db_password> [threads|nio|virtual] [node_id] [write-through|write-behind]'");
         } catch (NumberFormatException exception) {
             OutputDeliver.printError("Порт должен быть представлен числом!");
         } catch (DeclaredLimitException exception) {
@@ -26,6 +26,14 @@ public class AbstractCommand implements Command{
         return true;
     }
 
+    /**
+     * @return Is command only reading the collection, so it may run together with other such commands.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
     /**
      * @return Description of the command.
      */
@@ -7,6 +7,8 @@ import server.utility.CollectionManager;
 import server.utility.DatabaseCollectionManager;
 import server.utility.ResponseOutputDeliver;
 
+import java.util.OptionalDouble;
+
 /**
  * Command 'AverageOfNumberOfParticipants'. Return average of number of participants in whole collection.
  */
@@ -28,9 +30,9 @@ public class AverageOfNumberParticipantsCommand extends AbstractCommand{
     public boolean execute(String stringArgument, Object objectArgument, User user) {
         try {
             if (!stringArgument.isEmpty() || objectArgument != null) throw new WrongAmountOfElementsException();
-            double avNum = collectionManager.getAverageOfNumberOfParticipants();
-            if (avNum == 0) throw new CollectionIsEmptyException();
-            ResponseOutputDeliver.appendLn("Average of number of participants: " + avNum);
+            OptionalDouble avNum = collectionManager.getAverageOfNumberOfParticipants();
+            if (!avNum.isPresent()) throw new CollectionIsEmptyException();
+            ResponseOutputDeliver.appendLn("Average of number of participants: " + avNum.getAsDouble());
             return true;
         } catch (WrongAmountOfElementsException exception) {
             ResponseOutputDeliver.appendLn("Executing the: '" + getName() +  "'");
@@ -39,4 +41,12 @@ public class AverageOfNumberParticipantsCommand extends AbstractCommand{
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
@@ -11,7 +11,7 @@ import server.utility.CollectionManager;
 import server.utility.DatabaseCollectionManager;
 import server.utility.ResponseOutputDeliver;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -35,13 +35,11 @@ public class ClearCommand extends AbstractCommand{
     public boolean execute(String stringArg, Object objectArg, User user) {
         try {
             if (!stringArg.isEmpty() || objectArg != null) throw new WrongAmountOfElementsException();
-            Collection<MusicBand> bands = collectionManager.getCollection().values();
-            for (MusicBand band : bands) {
-                if (!band.getOwner().equals(user)) throw new PermissionDeniedException();
-                if (!databaseCollectionManager.checkBandUserId(band.getId(), user)) throw new ManualDatabaseEditException();
-            }
-            databaseCollectionManager.clearCollection();
-            collectionManager.clearCollection();
+            if (!collectionManager.isAllOwnedBy(user)) throw new PermissionDeniedException();
+            List<Integer> bandIds = new ArrayList<>();
+            for (MusicBand band : collectionManager.getByOwner(user)) bandIds.add(band.getId());
+            databaseCollectionManager.deleteBandsByIds(bandIds, user);
+            collectionManager.removeAllFromCollection(bandIds);
             ResponseOutputDeliver.appendLn("Коллекция очищена!");
             return true;
         } catch (WrongAmountOfElementsException exception) {
@@ -9,4 +9,5 @@ public interface Command {
     String getDescription();
     String getName();
     boolean execute(String stringArgument, Object objectArgument, User user);
+    boolean isReadOnly();
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import common.interaction.User;
 import server.utility.CollectionManager;
 import server.utility.ResponseOutputDeliver;
 
+import java.util.List;
+
 /**
  * Command 'print_fields_ascending_description'. Prints all descriptions.
  */
@@ -25,9 +27,9 @@ public class FieldsOfDescriptionsCommand extends AbstractCommand{
         try {
             if (!StringArgument.isEmpty() || objectArgument != null) throw new IllegalArgumentException();
             if (collectionManager.collectionSize() == 0) throw new CollectionIsEmptyException();
-            String filteredInfo = collectionManager.getAllDescriptions();
-            if (!filteredInfo.isEmpty()) {
-                ResponseOutputDeliver.appendLn(filteredInfo);
+            List<String> descriptions = collectionManager.getAllDescriptions();
+            if (!descriptions.isEmpty()) {
+                for (String description : descriptions) ResponseOutputDeliver.appendLn(description);
                 return true;
             } else  ResponseOutputDeliver.appendLn("There are no bands in the collection with such a description.!");
         } catch (CollectionIsEmptyException exception) {
@@ -37,4 +39,12 @@ public class FieldsOfDescriptionsCommand extends AbstractCommand{
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
@@ -3,9 +3,12 @@ package server.commands;
 import common.exceptions.CollectionIsEmptyException;
 import common.exceptions.WrongAmountOfElementsException;
 import common.interaction.User;
+import common.model.MusicBand;
 import server.utility.CollectionManager;
 import server.utility.ResponseOutputDeliver;
 
+import java.util.List;
+
 /**
  * Command 'filter_starts_with description'. Finds element with description start.
  */
@@ -26,9 +29,9 @@ public class FilterCommand extends AbstractCommand{
         try {
             if (stringArgument.isEmpty() || objectArgument != null) throw new WrongAmountOfElementsException();
             if (collectionManager.collectionSize() == 0) throw new CollectionIsEmptyException();
-            String filteredInfo = collectionManager.descriptionFilter(stringArgument);
-            if (!filteredInfo.isEmpty()) {
-                ResponseOutputDeliver.appendLn(filteredInfo);
+            List<MusicBand> filteredBands = collectionManager.descriptionFilter(stringArgument);
+            if (!filteredBands.isEmpty()) {
+                for (MusicBand band : filteredBands) ResponseOutputDeliver.appendLn(band);
                 return true;
             } else  ResponseOutputDeliver.appendLn("There are no groups in the collection with a suitable description!");
         } catch (WrongAmountOfElementsException exception) {
@@ -40,4 +43,12 @@ public class FilterCommand extends AbstractCommand{
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
@@ -28,4 +28,12 @@ public class HelpCommand extends AbstractCommand{
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
@@ -38,4 +38,12 @@ public class InfoCommand extends AbstractCommand{
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
@@ -35,9 +35,18 @@ public class InsertCommand extends AbstractCommand{
         try {
             if (stringArgument.isEmpty() || objectArgument == null) throw new WrongAmountOfElementsException();
             if (Integer.parseInt(stringArgument) <= 0) throw new DeclaredLimitException();
-            BandRaw bandRaw = (BandRaw) objectArgument;
-            MusicBand bandToAdd = databaseCollectionManager.insertBand(bandRaw, stringArgument, user);
-            collectionManager.addToCollection(bandToAdd.getId(), bandToAdd);
+            Integer key = Integer.parseInt(stringArgument);
+            if (!collectionManager.reserveKey(key)) {
+                ResponseOutputDeliver.appendError("Элемент с таким ключом уже существует!");
+                return false;
+            }
+            try {
+                BandRaw bandRaw = (BandRaw) objectArgument;
+                MusicBand bandToAdd = databaseCollectionManager.insertBand(bandRaw, stringArgument, user);
+                collectionManager.addToCollection(bandToAdd.getId(), bandToAdd);
+            } finally {
+                collectionManager.releaseKey(key);
+            }
             ResponseOutputDeliver.appendLn("Музыкальная группа успешно добавлена!");
             return true;
         }  catch (WrongAmountOfElementsException exception) {
@@ -6,16 +6,19 @@ import common.exceptions.WrongAmountOfElementsException;
 import common.interaction.User;
 import server.utility.DatabaseUserManager;
 import server.utility.ResponseOutputDeliver;
+import server.utility.SessionManager;
 
 /**
  * Command 'login'. Allows the user to login.
  */
 public class LoginCommand extends AbstractCommand {
     private DatabaseUserManager databaseUserManager;
+    private SessionManager sessionManager;
 
-    public LoginCommand(DatabaseUserManager databaseUserManager) {
+    public LoginCommand(DatabaseUserManager databaseUserManager, SessionManager sessionManager) {
         super("login",  "Inner command");
         this.databaseUserManager = databaseUserManager;
+        this.sessionManager = sessionManager;
     }
 
     /**
@@ -26,9 +29,10 @@ public class LoginCommand extends AbstractCommand {
     public boolean execute(String stringArgument, Object objectArgument, User user) {
         try {
             if (!stringArgument.isEmpty() || objectArgument != null) throw new WrongAmountOfElementsException();
-            if (databaseUserManager.checkUserByUsernameAndPassword(user)) ResponseOutputDeliver.appendLn("Пользователь " +
-                    user.getUsername() + " авторизован.");
-            else throw new UserIsNotFoundException();
+            if (!databaseUserManager.checkUserByUsernameAndPassword(user)) throw new UserIsNotFoundException();
+            long userId = databaseUserManager.getUserIdByUsername(user);
+            ResponseOutputDeliver.setSessionToken(sessionManager.createSession(userId, user));
+            ResponseOutputDeliver.appendLn("Пользователь " + user.getUsername() + " авторизован.");
             return true;
         } catch (WrongAmountOfElementsException exception) {
             ResponseOutputDeliver.appendLn("Использование: эммм...эээ.это внутренняя команда...");
@@ -41,4 +45,12 @@ public class LoginCommand extends AbstractCommand {
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -6,16 +6,19 @@ import common.exceptions.WrongAmountOfElementsException;
 import common.interaction.User;
 import server.utility.DatabaseUserManager;
 import server.utility.ResponseOutputDeliver;
+import server.utility.SessionManager;
 
 /**
  * Command 'register'. Allows the user to register.
  */
 public class RegisterCommand extends AbstractCommand {
     private DatabaseUserManager databaseUserManager;
+    private SessionManager sessionManager;
 
-    public RegisterCommand(DatabaseUserManager databaseUserManager) {
+    public RegisterCommand(DatabaseUserManager databaseUserManager, SessionManager sessionManager) {
         super("register",  "Inner command");
         this.databaseUserManager = databaseUserManager;
+        this.sessionManager = sessionManager;
     }
 
     /**
@@ -27,9 +30,10 @@ public class RegisterCommand extends AbstractCommand {
     public boolean execute(String stringArgument, Object objectArgument, User user) {
         try {
             if (!stringArgument.isEmpty() || objectArgument != null) throw new WrongAmountOfElementsException();
-            if (databaseUserManager.insertUser(user)) ResponseOutputDeliver.appendLn("Пользователь " +
-                    user.getUsername() + " зарегистрирован.");
-            else throw new UserAlreadyExists();
+            if (!databaseUserManager.insertUser(user)) throw new UserAlreadyExists();
+            long userId = databaseUserManager.getUserIdByUsername(user);
+            ResponseOutputDeliver.setSessionToken(sessionManager.createSession(userId, user));
+            ResponseOutputDeliver.appendLn("Пользователь " + user.getUsername() + " зарегистрирован.");
             return true;
         } catch (WrongAmountOfElementsException exception) {
             ResponseOutputDeliver.appendLn("Использование: эммм...эээ.это внутренняя команда...");
@@ -7,6 +7,8 @@ import server.utility.CollectionManager;
 import server.utility.DatabaseCollectionManager;
 import server.utility.ResponseOutputDeliver;
 
+import java.util.Collections;
+
 /**
  * Command 'remove_key'. Removes the element by key.
  */
@@ -32,9 +34,8 @@ public class RemoveCommand extends AbstractCommand {
             Integer id = Integer.parseInt(arg);
             MusicBand bandToRemove = collectionManager.getById(id);
             if (bandToRemove == null) throw new BandCanNotFoundException();
-            if (!bandToRemove.getOwner().equals(user)) throw new PermissionDeniedException();
-            if (!databaseCollectionManager.checkBandUserId(bandToRemove.getId(), user)) throw new ManualDatabaseEditException();
-            databaseCollectionManager.deleteBandById(id);
+            if (bandToRemove.getOwnerId() != user.getId()) throw new PermissionDeniedException();
+            databaseCollectionManager.deleteBandsByIds(Collections.singletonList(id), user);
             collectionManager.removeFromCollection(bandToRemove.getId());
             ResponseOutputDeliver.appendLn("Музыкальная группа успешно удалена!");
             return true;
@@ -12,6 +12,8 @@ import server.utility.DatabaseCollectionManager;
 import server.utility.ResponseOutputDeliver;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Command 'remove_lower'. Removes all elements it's lower.
@@ -48,14 +50,14 @@ public class RemoveLowerCommand extends AbstractCommand{
                     user
             );
             if (bandToFind == null) throw new BandCanNotFoundException();
-            for (MusicBand band : collectionManager.getLower(bandToFind)) {
-                if (!band.getOwner().equals(user)) throw new PermissionDeniedException();
-                if (!databaseCollectionManager.checkBandUserId(band.getId(), user)) throw new ManualDatabaseEditException();
-            }
-            for (MusicBand band : collectionManager.getLower(bandToFind)) {
-                databaseCollectionManager.deleteBandById(band.getId());
-                collectionManager.removeFromCollection(band.getId());
+            List<MusicBand> bandsToRemove = collectionManager.getLower(bandToFind);
+            List<Integer> bandIds = new ArrayList<>(bandsToRemove.size());
+            for (MusicBand band : bandsToRemove) {
+                if (band.getOwnerId() != user.getId()) throw new PermissionDeniedException();
+                bandIds.add(band.getId());
             }
+            databaseCollectionManager.deleteBandsByIds(bandIds, user);
+            collectionManager.removeAllFromCollection(bandIds);
             ResponseOutputDeliver.appendLn("Музыкальные группы успешно удалены!");
             return true;
         } catch (CollectionIsEmptyException exception) {
@@ -9,6 +9,8 @@ import server.utility.DatabaseCollectionManager;
 import server.utility.ResponseOutputDeliver;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Command 'remove_lower_key'. Removes all element if it's key is lower'.
@@ -33,14 +35,14 @@ public class RemoveLowerKeyCommand extends AbstractCommand{
             if (arg.isEmpty() || objectArg != null) throw new WrongAmountOfElementsException();
             if (collectionManager.collectionSize() == 0) throw new CollectionIsEmptyException();
             Integer key = Integer.parseInt(arg);
-            for (MusicBand band : collectionManager.getLowerKeyBands(key)) {
-                if (!band.getOwner().equals(user)) throw new PermissionDeniedException();
-                if (!databaseCollectionManager.checkBandUserId(band.getId(), user)) throw new ManualDatabaseEditException();
-            }
-            for (MusicBand band : collectionManager.getLowerKeyBands(key)) {
-                databaseCollectionManager.deleteBandById(band.getId());
-                collectionManager.removeFromCollection(band.getId());
+            List<MusicBand> bandsToRemove = collectionManager.getLowerKeyBands(key);
+            List<Integer> bandIds = new ArrayList<>(bandsToRemove.size());
+            for (MusicBand band : bandsToRemove) {
+                if (band.getOwnerId() != user.getId()) throw new PermissionDeniedException();
+                bandIds.add(band.getId());
             }
+            databaseCollectionManager.deleteBandsByIds(bandIds, user);
+            collectionManager.removeAllFromCollection(bandIds);
             ResponseOutputDeliver.appendLn("Операция удаления завершена успешно!");
             return true;
         } catch (CollectionIsEmptyException exception) {
@@ -34,7 +34,7 @@ public class ReplaceIfGreaterCommand extends AbstractCommand{
             if (collectionManager.collectionSize() == 0) throw new CollectionIsEmptyException();
             BandRaw bandRaw = (BandRaw) objectArg;
             MusicBand bandToCompare = new MusicBand(
-                    collectionManager.generateNextId(),
+                    Integer.parseInt(arg),
                     bandRaw.getName(),
                     bandRaw.getCoordinates(),
                     LocalDateTime.now(),
@@ -46,9 +46,11 @@ public class ReplaceIfGreaterCommand extends AbstractCommand{
             );
             MusicBand oldBand = collectionManager.getById(Integer.parseInt(arg));
             if (oldBand == null) throw new BandCanNotFoundException();
-            boolean isGreater = collectionManager.replaceIfGreater(Integer.parseInt(arg), bandToCompare);
-            if (!oldBand.getOwner().equals(user)) throw new PermissionDeniedException();
-            if (isGreater) databaseCollectionManager.updateBandById(Integer.parseInt(arg), bandRaw);
+            if (oldBand.getOwnerId() != user.getId()) throw new PermissionDeniedException();
+            if (oldBand.compareTo(bandToCompare) > 0) {
+                MusicBand updatedBand = databaseCollectionManager.updateBand(oldBand, bandRaw);
+                collectionManager.addToCollection(updatedBand.getId(), updatedBand);
+            }
             ResponseOutputDeliver.appendLn("Band successfully replaced!");
             return true;
         } catch (WrongAmountOfElementsException exception) {
@@ -61,6 +63,8 @@ public class ReplaceIfGreaterCommand extends AbstractCommand{
             ResponseOutputDeliver.appendError("Недостаточно прав для замены объекта!");
         } catch (DatabaseHandlingException exception) {
             ResponseOutputDeliver.appendError("Ошибка соединения с базой данных!");
+        } catch (ManualDatabaseEditException exception) {
+            ResponseOutputDeliver.appendError("Произошло прямое изменение базы данных!");
         }
         return false;
     }
@@ -2,17 +2,22 @@ package server.commands;
 
 import common.exceptions.WrongAmountOfElementsException;
 import common.interaction.User;
+import common.model.MusicBand;
 import server.utility.CollectionManager;
 import server.utility.ResponseOutputDeliver;
 
+import java.util.List;
+
 /**
- * Command 'show'. Shows information about all elements of the collection.
+ * Command 'show'. Shows information about elements of the collection page by page.
  */
 public class ShowCommand extends AbstractCommand{
+    private static final int PAGE_SIZE = 1000;
+
     private CollectionManager collectionManager;
 
     public ShowCommand(CollectionManager collectionManager) {
-        super("show", "Displaying all elements of the collection");
+        super("show [offset] [limit]", "Displaying elements of the collection, all or the given amount");
         this.collectionManager = collectionManager;
     }
 
@@ -23,12 +28,39 @@ public class ShowCommand extends AbstractCommand{
     @Override
     public boolean execute(String argument, Object objectArg, User user) {
         try {
-            if (!argument.isEmpty() || objectArg != null) throw new WrongAmountOfElementsException();
-            ResponseOutputDeliver.appendLn(collectionManager);
+            if (objectArg != null) throw new WrongAmountOfElementsException();
+            String[] pageArguments = argument.isEmpty() ? new String[0] : argument.split(" ");
+            if (pageArguments.length > 2) throw new WrongAmountOfElementsException();
+            int offset = pageArguments.length > 0 ? Integer.parseInt(pageArguments[0]) : 0;
+            int limit = pageArguments.length > 1 ? Integer.parseInt(pageArguments[1]) : Integer.MAX_VALUE;
+            if (offset < 0 || limit < 0) throw new NumberFormatException();
+            int shown = 0;
+            Integer lastKey = null;
+            while (shown < limit) {
+                List<MusicBand> page = collectionManager.getPage(lastKey, lastKey == null ? offset : 0,
+                        Math.min(PAGE_SIZE, limit - shown));
+                if (page.isEmpty()) break;
+                for (MusicBand band : page) {
+                    ResponseOutputDeliver.appendLn(band);
+                }
+                shown += page.size();
+                lastKey = page.get(page.size() - 1).getId();
+                ResponseOutputDeliver.flushChunk();
+            }
+            if (shown == 0) ResponseOutputDeliver.appendLn(collectionManager.collectionSize() == 0 ?
+                    "Collection is empty." : "No elements on this page.");
             return true;
-        } catch (WrongAmountOfElementsException exc) {
+        } catch (WrongAmountOfElementsException | NumberFormatException exc) {
             ResponseOutputDeliver.appendLn("Executing the: '" + getName() + "'");
         }
         return false;
     }
+
+    /**
+     * @return Is command only reading the collection.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
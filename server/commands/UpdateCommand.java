@@ -3,13 +3,11 @@ package server.commands;
 import common.exceptions.*;
 import common.interaction.BandRaw;
 import common.interaction.User;
-import common.model.*;
+import common.model.MusicBand;
 import server.utility.CollectionManager;
 import server.utility.DatabaseCollectionManager;
 import server.utility.ResponseOutputDeliver;
 
-import java.time.LocalDateTime;
-
 /**
  * Command 'update'. Updates the information about selected marine.
  */
@@ -37,32 +35,11 @@ public class UpdateCommand extends AbstractCommand{
             if (id <= 0) throw new NumberFormatException();
             MusicBand oldBand = collectionManager.getById(id);
             if (oldBand == null) throw new BandCanNotFoundException();
-            if (!oldBand.getOwner().equals(user)) throw new PermissionDeniedException();
-            if (!databaseCollectionManager.checkBandUserId(oldBand.getId(), user)) throw new ManualDatabaseEditException();
+            if (oldBand.getOwnerId() != user.getId()) throw new PermissionDeniedException();
             BandRaw bandRaw = (BandRaw) objArgument;
 
-            databaseCollectionManager.updateBandById(id, bandRaw);
-
-            String name = bandRaw.getName() == null ? oldBand.getName() : bandRaw.getName();
-            Coordinates coordinates = bandRaw.getCoordinates() == null ? oldBand.getCoordinates() : bandRaw.getCoordinates();
-            LocalDateTime creationDate = oldBand.getCreationDate();
-            Long numberOfParticipant = bandRaw.getNumberOfParticipants() == -1 ? oldBand.getNumberOfParticipants() : bandRaw.getNumberOfParticipants();
-            String description = bandRaw.getDescription() == null ? oldBand.getDescription() : bandRaw.getDescription();
-            MusicGenre genre = bandRaw.getMusicGenre() == null ? oldBand.getGenre() : bandRaw.getMusicGenre();
-            Studio studio = bandRaw.getStudio() == null ? oldBand.getStudio() : bandRaw.getStudio();
-
-            collectionManager.removeFromCollection(oldBand.getId());
-            collectionManager.addToCollection(id, new MusicBand(
-                    id,
-                    name,
-                    coordinates,
-                    creationDate,
-                    numberOfParticipant,
-                    description,
-                    genre,
-                    studio,
-                    user
-            ));
+            MusicBand updatedBand = databaseCollectionManager.updateBand(oldBand, bandRaw);
+            collectionManager.addToCollection(id, updatedBand);
             ResponseOutputDeliver.appendLn("Группа успешно изменена!");
             return true;
         } catch (WrongAmountOfElementsException exception) {
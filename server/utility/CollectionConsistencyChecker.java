@@ -0,0 +1,45 @@
+package server.utility;
+
+import common.exceptions.DatabaseHandlingException;
+import common.model.MusicBand;
+import common.utility.OutputDeliver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Periodically compares owners of cached bands with the database, so that permissions can be checked
+ * in memory. When the database was edited directly, the collection is reloaded.
+ * Bands which differ are read again first, as they may have been changed by a command during the check.
+ * Used when database notifications are not available.
+ */
+public class CollectionConsistencyChecker implements Runnable {
+    private CollectionManager collectionManager;
+    private DatabaseCollectionManager databaseCollectionManager;
+
+    public CollectionConsistencyChecker(CollectionManager collectionManager,
+                                        DatabaseCollectionManager databaseCollectionManager) {
+        this.collectionManager = collectionManager;
+        this.databaseCollectionManager = databaseCollectionManager;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Set<Integer> differentBands = collectionManager.getBandsWithOtherOwners(
+                    databaseCollectionManager.getBandOwners(), null);
+            if (differentBands.isEmpty()) return;
+            Map<Integer, Long> bandOwners = new HashMap<>();
+            for (MusicBand band : databaseCollectionManager.getBandsByIds(differentBands).values())
+                bandOwners.put(band.getId(), band.getOwnerId());
+            if (collectionManager.getBandsWithOtherOwners(bandOwners, differentBands).isEmpty()) return;
+            OutputDeliver.printError("Обнаружено прямое изменение базы данных!");
+            collectionManager.reloadCollection();
+        } catch (DatabaseHandlingException exception) {
+            OutputDeliver.printError("Не удалось проверить согласованность коллекции с базой данных!");
+        } catch (RuntimeException exception) {
+            OutputDeliver.printError("При проверке согласованности коллекции произошла ошибка!");
+        }
+    }
+}
@@ -1,33 +1,337 @@
 package server.utility;
 
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.NavigableSet;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import common.exceptions.DatabaseHandlingException;
+import common.interaction.User;
 import common.model.MusicBand;
+import common.model.MusicGenre;
 import common.utility.OutputDeliver;
 
 /**
  * Operates the collection itself.
+ * Reads of single elements don't lock, writes are serialized, iterations work with consistent snapshots.
+ * Writes wait while the collection is reloaded, so a change committed during the reload isn't lost.
+ * A command doesn't overwrite a band which was changed by the database listener after the command began,
+ * the listener applies the command's own change from the database later.
+ * Bands are stored by their id (key of a band is always equal to its id), secondary indexes contain ids.
  */
 public class CollectionManager {
-    private HashMap<Integer, MusicBand> bandsCollection;
-    private LocalDateTime lastInitTime;
+    private final ConcurrentHashMap<Integer, MusicBand> bandsCollection = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Set<Integer>> ownerIndex = new ConcurrentHashMap<>();
+    private final EnumMap<MusicGenre, Set<Integer>> genreIndex = new EnumMap<>(MusicGenre.class);
+    private final ConcurrentSkipListSet<Integer> keyIndex = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListMap<ParticipantsKey, MusicBand> participantsIndex = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<DescriptionKey, MusicBand> descriptionIndex = new ConcurrentSkipListMap<>();
+    private final EnumMap<MusicGenre, long[]> genreParticipants = new EnumMap<>(MusicGenre.class);
+    private final EnumMap<MusicGenre, ConcurrentSkipListSet<ParticipantsKey>> genreParticipantsIndex =
+            new EnumMap<>(MusicGenre.class);
+    private long participantsSum;
+    private final StampedLock lock = new StampedLock();
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private static final Comparator<MusicBand> DESCRIPTION_ORDER =
+            Comparator.comparing(MusicBand::getDescription).thenComparing(MusicBand::getId);
+    private final ThreadLocal<Map<Integer, MusicBand>> transactionChanges = new ThreadLocal<>();
+    private final Set<Integer> reservedKeys = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Set<Integer>> transactionReservedKeys = new ThreadLocal<>();
+    private final AtomicLong externalChangeCount = new AtomicLong();
+    private final Map<Integer, Long> externalChangeTimes = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Integer> commandMarks = new TreeMap<>();
+    private final ThreadLocal<Long> commandMark = new ThreadLocal<>();
+    private volatile LocalDateTime lastInitTime;
     private DatabaseCollectionManager databaseCollectionManager;
 
     public CollectionManager(DatabaseCollectionManager databaseCollectionManager) {
         this.databaseCollectionManager = databaseCollectionManager;
+        for (MusicGenre genre : MusicGenre.values()) {
+            genreIndex.put(genre, ConcurrentHashMap.newKeySet());
+            genreParticipants.put(genre, new long[1]);
+            genreParticipantsIndex.put(genre, new ConcurrentSkipListSet<>());
+        }
         loadCollection();
     }
 
     /**
-     * @return Bands collection.
+     * Puts band into the collection and all indexes. Must be called under the write lock.
+     * @param number Key of the band.
+     * @param band Band itself.
+     */
+    private void putBand(Integer number, MusicBand band) {
+        MusicBand oldBand = bandsCollection.put(number, band);
+        if (oldBand != null) unindex(number, oldBand);
+        ownerIndex.computeIfAbsent(band.getOwnerId(), ownerId -> ConcurrentHashMap.newKeySet()).add(number);
+        genreIndex.get(band.getGenre()).add(number);
+        keyIndex.add(number);
+        participantsIndex.put(new ParticipantsKey(band.getNumberOfParticipants(), number), band);
+        descriptionIndex.put(new DescriptionKey(band.getDescription(), number), band);
+        participantsSum += band.getNumberOfParticipants();
+        genreParticipants.get(band.getGenre())[0] += band.getNumberOfParticipants();
+        genreParticipantsIndex.get(band.getGenre()).add(new ParticipantsKey(band.getNumberOfParticipants(), number));
+    }
+
+    /**
+     * Removes band from the collection and all indexes. Must be called under the write lock.
+     * @param number Key of the band.
+     */
+    private void removeBand(Integer number) {
+        MusicBand oldBand = bandsCollection.remove(number);
+        if (oldBand != null) unindex(number, oldBand);
+    }
+
+    /**
+     * Removes band from secondary indexes. Must be called under the write lock.
+     * @param number Key of the band.
+     * @param band Band itself.
+     */
+    private void unindex(Integer number, MusicBand band) {
+        Set<Integer> ownerBands = ownerIndex.get(band.getOwnerId());
+        if (ownerBands != null) {
+            ownerBands.remove(number);
+            if (ownerBands.isEmpty()) ownerIndex.remove(band.getOwnerId());
+        }
+        genreIndex.get(band.getGenre()).remove(number);
+        keyIndex.remove(number);
+        participantsIndex.remove(new ParticipantsKey(band.getNumberOfParticipants(), number));
+        descriptionIndex.remove(new DescriptionKey(band.getDescription(), number));
+        participantsSum -= band.getNumberOfParticipants();
+        genreParticipants.get(band.getGenre())[0] -= band.getNumberOfParticipants();
+        genreParticipantsIndex.get(band.getGenre()).remove(new ParticipantsKey(band.getNumberOfParticipants(), number));
+    }
+
+    /**
+     * Removes all bands from the collection and all indexes. Must be called under the write lock.
+     */
+    private void removeAllBands() {
+        bandsCollection.clear();
+        ownerIndex.clear();
+        for (Set<Integer> genreBands : genreIndex.values()) genreBands.clear();
+        keyIndex.clear();
+        participantsIndex.clear();
+        descriptionIndex.clear();
+        participantsSum = 0;
+        for (long[] genreSum : genreParticipants.values()) genreSum[0] = 0;
+        for (Set<ParticipantsKey> genreKeys : genreParticipantsIndex.values()) genreKeys.clear();
+    }
+
+    /**
+     * @param numbers Keys of bands.
+     * @return Bands which are still in the collection.
+     */
+    private List<MusicBand> resolve(Collection<Integer> numbers) {
+        List<MusicBand> bands = new ArrayList<>(numbers.size());
+        for (Integer number : numbers) {
+            MusicBand band = bandsCollection.get(number);
+            if (band != null) bands.add(band);
+        }
+        return bands;
+    }
+
+    /**
+     * Applies changes of the current thread's transaction to bands read from the collection.
+     * @param bands Bands read from the collection.
+     * @param filter Condition which changed bands must satisfy to be added.
+     * @param order Order of the result or null, if it doesn't matter.
+     * @return Bands as the current thread sees them.
+     */
+    private List<MusicBand> withTransactionChanges(List<MusicBand> bands, Predicate<MusicBand> filter,
+                                                   Comparator<MusicBand> order) {
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes == null || changes.isEmpty()) return bands;
+        bands.removeIf(band -> changes.containsKey(band.getId()));
+        for (MusicBand band : changes.values()) {
+            if (band != null && filter.test(band)) bands.add(band);
+        }
+        if (order != null) bands.sort(order);
+        return bands;
+    }
+
+    /**
+     * Reads of whole collection inside a transaction go through its copy, so that they see changes of the transaction.
+     * @return Bands as the current thread's transaction sees them or null, if it hasn't changed anything.
+     */
+    private List<MusicBand> getTransactionView() {
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes == null || changes.isEmpty()) return null;
+        return withTransactionChanges(snapshot(), band -> true, null);
+    }
+
+    /**
+     * @param genre Music genre or null for all bands.
+     * @return Statistics of number of participants as the current thread's transaction sees them
+     * or null, if it hasn't changed anything.
+     */
+    private LongSummaryStatistics getTransactionStatistics(MusicGenre genre) {
+        List<MusicBand> bands = getTransactionView();
+        if (bands == null) return null;
+        LongSummaryStatistics statistics = new LongSummaryStatistics();
+        for (MusicBand band : bands) {
+            if (genre == null || band.getGenre() == genre) statistics.accept(band.getNumberOfParticipants());
+        }
+        return statistics;
+    }
+
+    private static OptionalDouble getAverage(LongSummaryStatistics statistics) {
+        return statistics.getCount() == 0 ? OptionalDouble.empty() : OptionalDouble.of(statistics.getAverage());
+    }
+
+    private static OptionalLong getMin(LongSummaryStatistics statistics) {
+        return statistics.getCount() == 0 ? OptionalLong.empty() : OptionalLong.of(statistics.getMin());
+    }
+
+    private static OptionalLong getMax(LongSummaryStatistics statistics) {
+        return statistics.getCount() == 0 ? OptionalLong.empty() : OptionalLong.of(statistics.getMax());
+    }
+
+    /**
+     * @param bands Ordered bands.
+     * @param offset Amount of bands to skip.
+     * @param limit Maximal amount of bands to return.
+     * @return Page of bands.
+     */
+    private static List<MusicBand> page(List<MusicBand> bands, int offset, int limit) {
+        int from = Math.min(offset, bands.size());
+        int to = (int) Math.min((long) from + limit, bands.size());
+        return new ArrayList<>(bands.subList(from, to));
+    }
+
+    /**
+     * Marks the beginning of a command of the current thread, changes of the database listener made after it
+     * aren't overwritten by the command.
+     * @return Is it the outermost command, nested one belongs to the outer.
+     */
+    public boolean beginCommand() {
+        if (commandMark.get() != null) return false;
+        synchronized (commandMarks) {
+            long mark = externalChangeCount.get();
+            commandMarks.merge(mark, 1, Integer::sum);
+            commandMark.set(mark);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the end of the outermost command of the current thread.
      */
-    public HashMap<Integer, MusicBand> getCollection() {
-        return bandsCollection;
+    public void endCommand() {
+        Long mark = commandMark.get();
+        if (mark == null) return;
+        commandMark.remove();
+        synchronized (commandMarks) {
+            commandMarks.computeIfPresent(mark, (key, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * @param number Key of the band.
+     * @return Was band changed by the database listener after the command of the current thread began.
+     */
+    private boolean isChangedExternally(Integer number) {
+        Long mark = commandMark.get();
+        if (mark == null) return false;
+        Long changeTime = externalChangeTimes.get(number);
+        return changeTime != null && changeTime > mark;
+    }
+
+    /**
+     * Starts collecting changes of the current thread instead of applying them, so that other threads
+     * don't see changes of a transaction which may be rolled back. The thread itself sees its changes.
+     * @return Is it the outermost transaction, nested one joins the outer.
+     */
+    public boolean beginTransaction() {
+        if (transactionChanges.get() != null) return false;
+        transactionChanges.set(new LinkedHashMap<>());
+        transactionReservedKeys.set(new HashSet<>());
+        return true;
+    }
+
+    /**
+     * Stops collecting changes of the current thread, keys reserved by the transaction stay reserved
+     * until releaseTransactionKeys() is called.
+     * @return Changed bands by key, removed bands are mapped to null.
+     */
+    public Map<Integer, MusicBand> endTransaction() {
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        transactionChanges.remove();
+        return changes == null ? new LinkedHashMap<>() : changes;
+    }
+
+    /**
+     * Frees keys reserved by the transaction of the current thread, after its changes are applied or discarded.
+     */
+    public void releaseTransactionKeys() {
+        Set<Integer> keys = transactionReservedKeys.get();
+        transactionReservedKeys.remove();
+        if (keys != null) reservedKeys.removeAll(keys);
+    }
+
+    /**
+     * Reserves key of a new band until the band is added, so that concurrent inserts of one key can't both succeed.
+     * @param number Key of the new band.
+     * @return Is key reserved, false if it's taken or reserved by another insert.
+     */
+    public boolean reserveKey(Integer number) {
+        if (getById(number) != null) return false;
+        Set<Integer> keys = transactionReservedKeys.get();
+        if (keys != null && keys.contains(number)) return true;
+        if (!reservedKeys.add(number)) return false;
+        if (getById(number) != null) {
+            reservedKeys.remove(number);
+            return false;
+        }
+        if (keys != null) keys.add(number);
+        return true;
+    }
+
+    /**
+     * Frees key reserved by reserveKey(), inside a transaction it's freed with the transaction.
+     * @param number Key of the band.
+     */
+    public void releaseKey(Integer number) {
+        if (transactionReservedKeys.get() == null) reservedKeys.remove(number);
+    }
+
+    /**
+     * @return Read-only view of the bands collection.
+     */
+    public Map<Integer, MusicBand> getCollection() {
+        return Collections.unmodifiableMap(bandsCollection);
+    }
+
+    /**
+     * Copies all bands, so that the copy doesn't contain partially applied changes.
+     * @return Consistent snapshot of the bands.
+     */
+    public List<MusicBand> snapshot() {
+        return readConsistently(() -> new ArrayList<>(bandsCollection.values()));
+    }
+
+    /**
+     * Runs a reading action optimistically, repeating it under the read lock if a writer interfered.
+     * @param reader Reading action, which copies what it needs.
+     * @param <T> Type of the result.
+     * @return Result of the action, which doesn't contain partially applied changes.
+     */
+    private <T> T readConsistently(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            T result = reader.get();
+            if (lock.validate(stamp)) return result;
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
     /**
@@ -38,18 +342,49 @@ public class CollectionManager {
     }
 
     /**
-     * Loads the collection.
+     * Replaces the collection with the one stored in the database.
+     */
+    public void reloadCollection() {
+        loadCollection();
+    }
+
+    /**
+     * Loads the collection. Writes are blocked from reading the database until the collection is replaced,
+     * readers see the old collection meanwhile.
      */
     private void loadCollection() {
+        updateLock.lock();
         try {
-            bandsCollection = databaseCollectionManager.getCollection();
+            Map<Integer, MusicBand> loadedBands = databaseCollectionManager.getCollection();
+            long stamp = lock.writeLock();
+            try {
+                removeAllBands();
+                for (MusicBand band : loadedBands.values()) putBand(band.getId(), band);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
             lastInitTime = LocalDateTime.now();
             OutputDeliver.println("Коллекция загружена.");
         } catch (DatabaseHandlingException exception) {
-            bandsCollection = new HashMap<>();
             OutputDeliver.printError("Коллекция не может быть загружена!");
+        } finally {
+            updateLock.unlock();
         }
     }
+
+    /**
+     * Takes the write lock, waiting for the reload of the collection to finish.
+     * @return Stamp of the write lock.
+     */
+    private long lockForUpdate() {
+        updateLock.lock();
+        return lock.writeLock();
+    }
+
+    private void unlockForUpdate(long stamp) {
+        lock.unlockWrite(stamp);
+        updateLock.unlock();
+    }
     /**
      * @return Name of the collection's type.
      */
@@ -61,7 +396,15 @@ public class CollectionManager {
      * @return Size of the collection.
      */
     public int collectionSize() {
-        return bandsCollection.size();
+        int size = bandsCollection.size();
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes == null) return size;
+        for (Map.Entry<Integer, MusicBand> change : changes.entrySet()) {
+            boolean isStored = bandsCollection.containsKey(change.getKey());
+            if (change.getValue() != null && !isStored) size++;
+            else if (change.getValue() == null && isStored) size--;
+        }
+        return size;
     }
 
     /**
@@ -69,55 +412,243 @@ public class CollectionManager {
      * @return A band by his ID or null if band isn't found.
      */
     public MusicBand getById(int id) {
-        for (Map.Entry entry: bandsCollection.entrySet()) {
-            MusicBand value = (MusicBand) entry.getValue();
-            int sId = value.getId();
-            if (sId == id) {
-                return value;
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes != null && changes.containsKey(id)) return changes.get(id);
+        return bandsCollection.get(id);
+    }
+
+    /**
+     * @param user Owner of bands.
+     * @return Bands of the owner.
+     */
+    public List<MusicBand> getByOwner(User user) {
+        Set<Integer> ownerBands = ownerIndex.get(user.getId());
+        List<MusicBand> bands = ownerBands == null ? new ArrayList<>() : resolve(ownerBands);
+        return withTransactionChanges(bands, band -> band.getOwnerId() == user.getId(), null);
+    }
+
+    /**
+     * @param user Owner of bands.
+     * @return Amount of bands of the owner.
+     */
+    public int countByOwner(User user) {
+        Set<Integer> ownerBands = ownerIndex.get(user.getId());
+        return ownerBands == null ? 0 : ownerBands.size();
+    }
+
+    /**
+     * Compares owners of bands with the ones stored in the database.
+     * @param bandOwners Owner id by band id, as stored in the database.
+     * @param bandIds Ids of bands to be compared or null to compare all bands.
+     * @return Ids of bands which are absent in the collection or in the database or have other owner there.
+     */
+    public Set<Integer> getBandsWithOtherOwners(Map<Integer, Long> bandOwners, Collection<Integer> bandIds) {
+        return readConsistently(() -> {
+            Set<Integer> differentBands = new HashSet<>();
+            Collection<Integer> comparedIds = bandIds == null ? bandsCollection.keySet() : bandIds;
+            for (Integer id : comparedIds) {
+                MusicBand band = bandsCollection.get(id);
+                Long ownerId = bandOwners.get(id);
+                if (band == null ? ownerId != null : ownerId == null || ownerId != band.getOwnerId())
+                    differentBands.add(id);
             }
-        }
-        return null;
+            if (bandIds == null) {
+                for (Integer id : bandOwners.keySet()) if (!bandsCollection.containsKey(id)) differentBands.add(id);
+            }
+            return differentBands;
+        });
     }
 
     /**
-     * @return Average if number of participants or 0 if collection is empty.
+     * @param genre Music genre.
+     * @return Bands of the genre.
      */
-    public double getAverageOfNumberOfParticipants() {
-        double sum = 0;
-        int count = 0;
-        for (Map.Entry entry: bandsCollection.entrySet()) {
-            MusicBand value = (MusicBand) entry.getValue();
-            sum += value.getNumberOfParticipants();
-            count++;
+    public List<MusicBand> getByGenre(MusicGenre genre) {
+        return withTransactionChanges(resolve(genreIndex.get(genre)), band -> band.getGenre() == genre, null);
+    }
+
+    /**
+     * Checks if every band of the collection belongs to the user.
+     * @param user Owner to check.
+     * @return Are all bands owned by the user.
+     */
+    public boolean isAllOwnedBy(User user) {
+        if (transactionChanges.get() != null) return getByOwner(user).size() == collectionSize();
+        long stamp = lock.readLock();
+        try {
+            return countByOwner(user) == bandsCollection.size();
+        } finally {
+            lock.unlockRead(stamp);
         }
-        return sum/count;
+    }
+
+    /**
+     * @return Average of number of participants or nothing if collection is empty.
+     */
+    public OptionalDouble getAverageOfNumberOfParticipants() {
+        LongSummaryStatistics statistics = getTransactionStatistics(null);
+        if (statistics != null) return getAverage(statistics);
+        return readConsistently(() -> {
+            int count = bandsCollection.size();
+            return count == 0 ? OptionalDouble.empty() : OptionalDouble.of((double) participantsSum / count);
+        });
+    }
+
+    /**
+     * @param genre Music genre.
+     * @return Average of number of participants of the genre or nothing if there are no bands of the genre.
+     */
+    public OptionalDouble getAverageOfNumberOfParticipants(MusicGenre genre) {
+        LongSummaryStatistics statistics = getTransactionStatistics(genre);
+        if (statistics != null) return getAverage(statistics);
+        return readConsistently(() -> {
+            int count = genreIndex.get(genre).size();
+            return count == 0 ? OptionalDouble.empty() :
+                    OptionalDouble.of((double) genreParticipants.get(genre)[0] / count);
+        });
+    }
+
+    /**
+     * @return Sum of number of participants of all bands.
+     */
+    public long getSumOfNumberOfParticipants() {
+        LongSummaryStatistics statistics = getTransactionStatistics(null);
+        if (statistics != null) return statistics.getSum();
+        return readConsistently(() -> participantsSum);
+    }
+
+    /**
+     * @param genre Music genre.
+     * @return Sum of number of participants of the genre.
+     */
+    public long getSumOfNumberOfParticipants(MusicGenre genre) {
+        LongSummaryStatistics statistics = getTransactionStatistics(genre);
+        if (statistics != null) return statistics.getSum();
+        return readConsistently(() -> genreParticipants.get(genre)[0]);
+    }
+
+    /**
+     * @param genre Music genre.
+     * @return Minimal number of participants of the genre or nothing if there are no bands of the genre.
+     */
+    public OptionalLong getMinNumberOfParticipants(MusicGenre genre) {
+        LongSummaryStatistics statistics = getTransactionStatistics(genre);
+        if (statistics != null) return getMin(statistics);
+        ParticipantsKey key = genreParticipantsIndex.get(genre).ceiling(
+                new ParticipantsKey(Long.MIN_VALUE, Integer.MIN_VALUE));
+        return key == null ? OptionalLong.empty() : OptionalLong.of(key.numberOfParticipants);
+    }
+
+    /**
+     * @param genre Music genre.
+     * @return Maximal number of participants of the genre or nothing if there are no bands of the genre.
+     */
+    public OptionalLong getMaxNumberOfParticipants(MusicGenre genre) {
+        LongSummaryStatistics statistics = getTransactionStatistics(genre);
+        if (statistics != null) return getMax(statistics);
+        ParticipantsKey key = genreParticipantsIndex.get(genre).floor(
+                new ParticipantsKey(Long.MAX_VALUE, Integer.MAX_VALUE));
+        return key == null ? OptionalLong.empty() : OptionalLong.of(key.numberOfParticipants);
+    }
+
+    /**
+     * @return Minimal number of participants or nothing if collection is empty.
+     */
+    public OptionalLong getMinNumberOfParticipants() {
+        LongSummaryStatistics statistics = getTransactionStatistics(null);
+        if (statistics != null) return getMin(statistics);
+        Map.Entry<ParticipantsKey, MusicBand> entry = participantsIndex.firstEntry();
+        return entry == null ? OptionalLong.empty() : OptionalLong.of(entry.getKey().numberOfParticipants);
+    }
+
+    /**
+     * @return Maximal number of participants or nothing if collection is empty.
+     */
+    public OptionalLong getMaxNumberOfParticipants() {
+        LongSummaryStatistics statistics = getTransactionStatistics(null);
+        if (statistics != null) return getMax(statistics);
+        Map.Entry<ParticipantsKey, MusicBand> entry = participantsIndex.lastEntry();
+        return entry == null ? OptionalLong.empty() : OptionalLong.of(entry.getKey().numberOfParticipants);
+    }
+
+    /**
+     * @param description Start of description of element to find.
+     * @return Bands whose description starts with the given one, ordered by description.
+     */
+    public List<MusicBand> descriptionFilter(String description) {
+        return descriptionFilter(description, 0, Integer.MAX_VALUE);
     }
 
     /**
      * @param description Start of description of element to find.
-     * @return Descriptions.
-     */
-    public String descriptionFilter(String description) {
-        String results = "";
-        for (Map.Entry entry: bandsCollection.entrySet()) {
-            MusicBand value = (MusicBand) entry.getValue();
-            if (value.getDescription().indexOf(description) != -1) {
-                results += value;
+     * @param offset Amount of matching bands to skip.
+     * @param limit Maximal amount of bands to return.
+     * @return Page of bands whose description starts with the given one, ordered by description.
+     */
+    public List<MusicBand> descriptionFilter(String description, int offset, int limit) {
+        List<MusicBand> transactionView = getTransactionView();
+        if (transactionView != null) {
+            transactionView.removeIf(band -> !band.getDescription().startsWith(description));
+            transactionView.sort(DESCRIPTION_ORDER);
+            return page(transactionView, offset, limit);
+        }
+        DescriptionKey from = new DescriptionKey(description, Integer.MIN_VALUE);
+        return readConsistently(() -> {
+            List<MusicBand> results = new ArrayList<>();
+            int skipped = 0;
+            for (Map.Entry<DescriptionKey, MusicBand> entry : descriptionIndex.tailMap(from, true).entrySet()) {
+                if (!entry.getKey().description.startsWith(description) || results.size() >= limit) break;
+                if (skipped++ < offset) continue;
+                results.add(entry.getValue());
             }
+            return results;
+        });
+    }
+
+    /**
+     * Reads bands in order of keys, so that long output may be read page by page.
+     * Every page is consistent, but changes may happen between pages.
+     * @param afterKey Key of the last band of the previous page or null to start from the beginning.
+     * @param offset Amount of bands to skip.
+     * @param limit Maximal amount of bands to return.
+     * @return Page of bands ordered by key.
+     */
+    public List<MusicBand> getPage(Integer afterKey, int offset, int limit) {
+        List<MusicBand> transactionView = getTransactionView();
+        if (transactionView != null) {
+            if (afterKey != null) transactionView.removeIf(band -> band.getId() <= afterKey);
+            transactionView.sort(Comparator.comparing(MusicBand::getId));
+            return page(transactionView, offset, limit);
         }
-        return results;
+        return readConsistently(() -> {
+            List<MusicBand> results = new ArrayList<>();
+            int skipped = 0;
+            for (Integer key : afterKey == null ? keyIndex : keyIndex.tailSet(afterKey, false)) {
+                if (results.size() >= limit) break;
+                if (skipped++ < offset) continue;
+                MusicBand band = bandsCollection.get(key);
+                if (band != null) results.add(band);
+            }
+            return results;
+        });
     }
 
     /**
-     * @return All descriptions.
+     * @return All descriptions in ascending order.
      */
-    public String getAllDescriptions() {
-        String results = "";
-        for (Map.Entry entry: bandsCollection.entrySet()) {
-            MusicBand value = (MusicBand) entry.getValue();
-            results += value.getDescription() + "\n";
+    public List<String> getAllDescriptions() {
+        List<MusicBand> transactionView = getTransactionView();
+        if (transactionView != null) {
+            transactionView.sort(DESCRIPTION_ORDER);
+            List<String> results = new ArrayList<>(transactionView.size());
+            for (MusicBand band : transactionView) results.add(band.getDescription());
+            return results;
         }
-        return results;
+        return readConsistently(() -> {
+            List<String> results = new ArrayList<>(descriptionIndex.size());
+            for (DescriptionKey key : descriptionIndex.keySet()) results.add(key.description);
+            return results;
+        });
     }
 
     /**
@@ -126,7 +657,17 @@ public class CollectionManager {
      * adds element to collection.
      */
     public void addToCollection(Integer number, MusicBand band) {
-        bandsCollection.put(number ,band);
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes != null) {
+            changes.put(number, band);
+            return;
+        }
+        long stamp = lockForUpdate();
+        try {
+            if (!isChangedExternally(number)) putBand(number, band);
+        } finally {
+            unlockForUpdate(stamp);
+        }
     }
 
     /**
@@ -134,76 +675,178 @@ public class CollectionManager {
      * removes element from collection.
      */
     public void removeFromCollection(Integer number) {
-        bandsCollection.remove(number);
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes != null) {
+            changes.put(number, null);
+            return;
+        }
+        long stamp = lockForUpdate();
+        try {
+            if (!isChangedExternally(number)) removeBand(number);
+        } finally {
+            unlockForUpdate(stamp);
+        }
     }
 
     /**
-     * Remove bands greater than the selected one.
+     * Finds bands with less number of participants than the selected one.
      * @param bandToCompare A band to compare with.
-     * @return Greater bands list.
+     * @return Lower bands list, ordered by number of participants.
      */
-    public NavigableSet<MusicBand> getLower(MusicBand bandToCompare) {
-        return bandsCollection.values().stream().filter(band -> band.compareTo(bandToCompare) > 0).collect(
-                TreeSet::new,
-                TreeSet::add,
-                TreeSet::addAll
-        );
+    public List<MusicBand> getLower(MusicBand bandToCompare) {
+        ParticipantsKey bound = new ParticipantsKey(bandToCompare.getNumberOfParticipants(), Integer.MIN_VALUE);
+        List<MusicBand> bands = readConsistently(() -> new ArrayList<>(participantsIndex.headMap(bound, false).values()));
+        return withTransactionChanges(bands,
+                band -> band.getNumberOfParticipants() < bandToCompare.getNumberOfParticipants(),
+                Comparator.comparing(MusicBand::getNumberOfParticipants).thenComparing(MusicBand::getId));
     }
 
     /**
-     * Remove bands whose key greater than the selected one.
+     * Finds bands whose key is less than the selected one.
      * @param key A band keys to compare with.
-     * @return Greater bands list.
+     * @return Lower bands list, ordered by key.
      */
-    public NavigableSet<MusicBand> getLowerKeyBands(Integer key) {
-        return bandsCollection.values().stream().filter(band -> band.getId() < key).collect(
-                TreeSet::new,
-                TreeSet::add,
-                TreeSet::addAll
-        );
+    public List<MusicBand> getLowerKeyBands(Integer key) {
+        List<MusicBand> bands = readConsistently(() -> resolve(keyIndex.headSet(key, false)));
+        return withTransactionChanges(bands, band -> band.getId() < key, Comparator.comparing(MusicBand::getId));
     }
 
     /**
-     * clears collection.
+     * @param numbers of elements
+     * removes elements from collection at once.
      */
-    public void clearCollection() {
-        bandsCollection.clear();
+    public void removeAllFromCollection(Collection<Integer> numbers) {
+        Map<Integer, MusicBand> changes = transactionChanges.get();
+        if (changes != null) {
+            for (Integer number : numbers) changes.put(number, null);
+            return;
+        }
+        long stamp = lockForUpdate();
         try {
-            databaseCollectionManager.clearCollection();
-        } catch (DatabaseHandlingException exception) {
-            OutputDeliver.printError("Ошибка доступа к базе данных!");
+            for (Integer number : numbers) {
+                if (!isChangedExternally(number)) removeBand(number);
+            }
+        } finally {
+            unlockForUpdate(stamp);
         }
     }
 
     /**
-     * @return id for next element.
+     * Applies changes made in the database at once.
+     * @param numbers Keys of changed bands.
+     * @param changedBands Current state of changed bands, deleted bands are absent.
      */
-    public Integer generateNextId() {
-        if (bandsCollection.isEmpty()) return 1;
-        return (bandsCollection.size()) + 1;
+    public void applyChanges(Collection<Integer> numbers, Map<Integer, MusicBand> changedBands) {
+        long stamp = lockForUpdate();
+        try {
+            for (Integer number : numbers) {
+                if (!isChangedExternally(number)) applyChange(number, changedBands.get(number));
+            }
+        } finally {
+            unlockForUpdate(stamp);
+        }
     }
 
     /**
-     * @param number of element
-     * @param band our band
-     * replaces element if it's greater.
+     * Applies state of bands read from the database after they were changed, by this server or another one.
+     * Commands which began before aren't allowed to overwrite these bands.
+     * @param numbers Keys of changed bands.
+     * @param changedBands Current state of changed bands, deleted bands are absent.
      */
-    public boolean replaceIfGreater(Integer number, MusicBand band) {
-        if (bandsCollection.get(number).compareTo(band) > 0) {
-            bandsCollection.put(number, band);
-            return true;
+    public void applyExternalChanges(Collection<Integer> numbers, Map<Integer, MusicBand> changedBands) {
+        long stamp = lockForUpdate();
+        try {
+            long changeTime = externalChangeCount.incrementAndGet();
+            for (Integer number : numbers) {
+                applyChange(number, changedBands.get(number));
+                externalChangeTimes.put(number, changeTime);
+            }
+            synchronized (commandMarks) {
+                long oldestMark = commandMarks.isEmpty() ? changeTime : commandMarks.firstKey();
+                externalChangeTimes.values().removeIf(time -> time <= oldestMark);
+            }
+        } finally {
+            unlockForUpdate(stamp);
         }
-        return false;
+    }
+
+    private void applyChange(Integer number, MusicBand band) {
+        if (band != null) putBand(number, band);
+        else removeBand(number);
     }
 
     @Override
     public String toString() {
-        if (bandsCollection.isEmpty()) return "Collection is empty.";
-        String info = "";
-        for (Map.Entry entry: bandsCollection.entrySet()) {
-            info += "\n" +entry.getValue();
+        List<MusicBand> bands = snapshot();
+        if (bands.isEmpty()) return "Collection is empty.";
+        StringBuilder info = new StringBuilder();
+        for (MusicBand band : bands) {
+            info.append("\n").append(band);
+        }
+        return info.toString();
+    }
+
+    /**
+     * Key of the number of participants index. Bands with equal number of participants are ordered by key.
+     */
+    private static final class ParticipantsKey implements Comparable<ParticipantsKey> {
+        private final long numberOfParticipants;
+        private final int number;
+
+        private ParticipantsKey(long numberOfParticipants, int number) {
+            this.numberOfParticipants = numberOfParticipants;
+            this.number = number;
+        }
+
+        @Override
+        public int compareTo(ParticipantsKey other) {
+            int result = Long.compare(numberOfParticipants, other.numberOfParticipants);
+            return result != 0 ? result : Integer.compare(number, other.number);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof ParticipantsKey)) return false;
+            ParticipantsKey other = (ParticipantsKey) obj;
+            return numberOfParticipants == other.numberOfParticipants && number == other.number;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(numberOfParticipants) * 31 + number;
         }
-        return info;
     }
 
+    /**
+     * Key of the description index. Bands with equal descriptions are ordered by key.
+     */
+    private static final class DescriptionKey implements Comparable<DescriptionKey> {
+        private final String description;
+        private final int number;
+
+        private DescriptionKey(String description, int number) {
+            this.description = description;
+            this.number = number;
+        }
+
+        @Override
+        public int compareTo(DescriptionKey other) {
+            int result = description.compareTo(other.description);
+            return result != 0 ? result : Integer.compare(number, other.number);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof DescriptionKey)) return false;
+            DescriptionKey other = (DescriptionKey) obj;
+            return description.equals(other.description) && number == other.number;
+        }
+
+        @Override
+        public int hashCode() {
+            return description.hashCode() * 31 + number;
+        }
+    }
 }
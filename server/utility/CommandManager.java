@@ -1,12 +1,16 @@
 package server.utility;
 
+import common.interaction.Request;
+import common.interaction.ScriptBatch;
 import common.interaction.User;
+import common.model.MusicBand;
 import server.commands.Command;
 import server.commands.ExecuteScriptCommand;
 import server.commands.HelpCommand;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Operates the commands.
@@ -14,8 +18,20 @@ import java.util.List;
 public class CommandManager {
     private List<Command> commands = new ArrayList<>();
     private ExecuteScriptCommand executeScriptCommand;
+    private DatabaseHandler databaseHandler;
+    private CollectionManager collectionManager;
 
     public CommandManager(Command... commands1) {
+        this(null, null, commands1);
+    }
+
+    /**
+     * @param databaseHandler Handler used to run scripts in one transaction.
+     * @param collectionManager Collection changed by a script only when it's committed.
+     */
+    public CommandManager(DatabaseHandler databaseHandler, CollectionManager collectionManager, Command... commands1) {
+        this.databaseHandler = databaseHandler;
+        this.collectionManager = collectionManager;
         for (int i = 0; i < commands1.length; i++) {
             if (commands1[i] instanceof ExecuteScriptCommand) {
                 this.executeScriptCommand = (ExecuteScriptCommand) commands1[i];
@@ -35,6 +51,93 @@ public class CommandManager {
         return false;
     }
 
+    /**
+     * Executes a command by its name.
+     * @param commandName Name of command.
+     * @param argument It's argument.
+     * @param objectArg It's object argument.
+     * @param user User, who executes the command.
+     * @return Command exit status.
+     */
+    public boolean executeCommand(String commandName, String argument, Object objectArg, User user) {
+        boolean isOuterCommand = collectionManager != null && collectionManager.beginCommand();
+        try {
+            return runCommand(commandName, argument, objectArg, user);
+        } finally {
+            if (isOuterCommand) collectionManager.endCommand();
+        }
+    }
+
+    private boolean runCommand(String commandName, String argument, Object objectArg, User user) {
+        if (commandName.isEmpty()) return true;
+        if (commandName.equals("execute_script")) {
+            if (objectArg instanceof ScriptBatch) return executeBatch(argument, (ScriptBatch) objectArg, user);
+            return executeScript(argument, objectArg, user);
+        }
+        if (commandName.equals("help")) return getAllCommands(argument, objectArg, user);
+        for (Command command : commands) {
+            if (command.getName().split(" ")[0].equals(commandName)) return command.execute(argument, objectArg, user);
+        }
+        return noSuchCommand(commandName);
+    }
+
+    /**
+     * Executes commands of the script in one database transaction.
+     * Changes of the collection are visible to others only after commit, if any command fails nothing is saved.
+     * @param scriptName Name of the script file.
+     * @param scriptBatch Commands of the script.
+     * @param user User, who executes the script.
+     * @return Command exit status.
+     */
+    public boolean executeBatch(String scriptName, ScriptBatch scriptBatch, User user) {
+        if (databaseHandler == null || collectionManager == null) {
+            ResponseOutputDeliver.appendError("Выполнение скрипта на сервере недоступно!");
+            return false;
+        }
+        boolean isSuccessful = true;
+        int executedCount = 0;
+        databaseHandler.setCommitMode();
+        boolean isOuterTransaction = collectionManager.beginTransaction();
+        try {
+            for (Request request : scriptBatch.getRequests()) {
+                if (request.getCommandName().equals("execute_script") && request.getCommandObjectArgument() == null)
+                    continue;
+                if (request.getCommandObjectArgument() instanceof ScriptBatch) {
+                    ResponseOutputDeliver.appendError("Скрипт не может содержать вложенный пакет команд!");
+                    isSuccessful = false;
+                    break;
+                }
+                ResponseOutputDeliver.appendLn(">>> " + request.getCommandName() + " " + request.getCommandStringArgument());
+                if (!executeCommand(request.getCommandName(), request.getCommandStringArgument(),
+                        request.getCommandObjectArgument(), user)) {
+                    isSuccessful = false;
+                    break;
+                }
+                executedCount++;
+            }
+        } catch (RuntimeException exception) {
+            ResponseOutputDeliver.appendError("При выполнении скрипта произошла ошибка!");
+            isSuccessful = false;
+        } finally {
+            if (isOuterTransaction) {
+                Map<Integer, MusicBand> changes = collectionManager.endTransaction();
+                if (isSuccessful) databaseHandler.afterCommit(() -> collectionManager.applyChanges(changes.keySet(), changes));
+            }
+            if (!isSuccessful || databaseHandler.isRollbackOnly() || !databaseHandler.commit()) {
+                isSuccessful = false;
+                databaseHandler.rollback();
+            }
+            databaseHandler.setNormalMode();
+            if (isOuterTransaction) collectionManager.releaseTransactionKeys();
+        }
+        if (isSuccessful) {
+            ResponseOutputDeliver.appendLn("Скрипт '" + scriptName + "' выполнен, команд: " + executedCount + ".");
+        } else {
+            ResponseOutputDeliver.appendError("Скрипт '" + scriptName + "' отменен, изменения не сохранены!");
+        }
+        return isSuccessful;
+    }
+
     /**
      * Prints info about the all commands.
      * @param argument It's argument.
@@ -48,6 +151,8 @@ public class CommandManager {
                 ResponseOutputDeliver.appendable(command.getName(), command.getDescription());
             }
             ResponseOutputDeliver.appendable(executeScriptCommand.getName(), executeScriptCommand.getDescription());
+            ResponseOutputDeliver.appendable("execute_script_batch <file_name>",
+                    "Execute script on the server in one transaction");
             return true;
         }
         else return false;
@@ -62,6 +167,17 @@ public class CommandManager {
         return executeScriptCommand.execute(argument, objectArg, user);
     }
 
+    /**
+     * @param commandName Name of command.
+     * @return Is command only reading the collection.
+     */
+    public boolean isReadOnly(String commandName) {
+        for (Command command : commands) {
+            if (command.getName().split(" ")[0].equals(commandName)) return command.isReadOnly();
+        }
+        return false;
+    }
+
     public List<Command> getCommands() {
         return this.commands;
     }
@@ -1,79 +1,94 @@
 package server.utility;
 
+import common.interaction.BinaryCodec;
+import common.interaction.MessageStream;
 import common.interaction.Request;
 import common.interaction.Response;
 import common.interaction.ResponseCode;
 import common.utility.OutputDeliver;
 import server.Server;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.*;
 import java.net.Socket;
-import java.util.concurrent.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Handles user connection.
  */
 public class ConnectionHandler implements Runnable {
+    public static final int MAX_REQUESTS_IN_FLIGHT = 64;
+    private static final Response END_OF_RESPONSES = new Response(ResponseCode.OK, "");
+
     private Server server;
     private Socket clientSocket;
-    private CommandManager commandManager;
-    private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
-    private ExecutorService fixedThreadPool = Executors.newFixedThreadPool(1);
-    private ExecutorService fTP = Executors.newFixedThreadPool(1);
-
+    private RequestExecutor requestExecutor;
+    private volatile ResponseCode exitCode;
+    private final BlockingQueue<Response> outboundResponses = new LinkedBlockingQueue<>();
 
-    public ConnectionHandler(Server server, Socket clientSocket, CommandManager commandManager) {
+    public ConnectionHandler(Server server, Socket clientSocket, RequestExecutor requestExecutor) {
         this.server = server;
         this.clientSocket = clientSocket;
-        this.commandManager = commandManager;
+        this.requestExecutor = requestExecutor;
     }
 
     /**
-     * Main handling cycle.
+     * Main handling cycle. Requests are read without waiting for responses, workers queue responses
+     * and the writer of the connection sends them, so a client which doesn't read blocks only its writer.
      */
     @Override
     public void run() {
-        Request userRequest;
-        Response responseToUser;
-        boolean stopFlag = false;
-        try (ObjectInputStream clientReader = new ObjectInputStream(clientSocket.getInputStream());
-             ObjectOutputStream clientWriter = new ObjectOutputStream(clientSocket.getOutputStream())) {
-            do {
-                userRequest = (Request) clientReader.readObject();
-                responseToUser = forkJoinPool.invoke(new RequestHandler(userRequest, commandManager));
-                Response finalResponseToUser = responseToUser;
-                if (!fixedThreadPool.submit(() -> {
-                    try {
-                        clientWriter.writeObject(finalResponseToUser);
-                        clientWriter.flush();
-                        return true;
-                    } catch (IOException exception) {
-                        OutputDeliver.printError("Произошла ошибка при отправке данных на клиент!");
-                    }
-                    return false;
-                }).get()) break;
-            } while (responseToUser.getResponseCode() != ResponseCode.SERVER_EXIT &&
-                    responseToUser.getResponseCode() != ResponseCode.CLIENT_EXIT);
-            if (responseToUser.getResponseCode() == ResponseCode.SERVER_EXIT)
-                stopFlag = true;
+        try (InputStream clientReader = new BufferedInputStream(clientSocket.getInputStream());
+             OutputStream clientWriter = new BufferedOutputStream(clientSocket.getOutputStream())) {
+            MessageStream clientStream = MessageStream.accept(clientReader, clientWriter);
+            boolean isChunked = clientStream.getVersion() >= BinaryCodec.CHUNKED_VERSION;
+            server.execute(() -> writeResponses(clientStream));
+            RequestPipeline requestPipeline = new RequestPipeline(requestExecutor, isChunked, outboundResponses::add);
+            while (exitCode == null) {
+                requestPipeline.awaitCapacity(MAX_REQUESTS_IN_FLIGHT);
+                requestPipeline.submit((Request) clientStream.read());
+            }
         } catch (ClassNotFoundException exception) {
             OutputDeliver.printError("Произошла ошибка при чтении полученных данных!");
-        } catch (CancellationException | ExecutionException | InterruptedException exception) {
+        } catch (InterruptedException exception) {
             OutputDeliver.printError("При обработке запроса произошла ошибка многопоточности!");
         } catch (IOException exception) {
-            OutputDeliver.println("Связь с клиентом была разорвана!");
+            if (exitCode == null) OutputDeliver.println("Связь с клиентом была разорвана!");
         } finally {
+            outboundResponses.add(END_OF_RESPONSES);
             try {
-                forkJoinPool.shutdown();
                 clientSocket.close();
                 OutputDeliver.println("Клиент отключен от сервера.");
             } catch (IOException exception) {
                 OutputDeliver.printError("Произошла ошибка при попытке завершить соединение с клиентом!");
             }
-            if (stopFlag) server.stop();
+            if (exitCode == ResponseCode.SERVER_EXIT) server.stop();
             server.releaseConnection();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes queued responses until the connection is closed.
+     */
+    private void writeResponses(MessageStream clientStream) {
+        try {
+            Response response;
+            while ((response = outboundResponses.take()) != END_OF_RESPONSES) {
+                clientStream.write(response);
+                if (response.getResponseCode() == ResponseCode.SERVER_EXIT ||
+                        response.getResponseCode() == ResponseCode.CLIENT_EXIT) {
+                    exitCode = response.getResponseCode();
+                    clientSocket.shutdownInput();
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (IOException exception) {
+            if (!clientSocket.isClosed()) OutputDeliver.printError("Произошла ошибка при отправке данных на клиент!");
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
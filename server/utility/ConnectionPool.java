@@ -0,0 +1,256 @@
+package server.utility;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of database connections.
+ */
+public class ConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long EVICTION_PERIOD_MILLIS = 30 * 1000;
+
+    private final String url;
+    private final Properties connectionProperties;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutNanos;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean isClosed;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    /**
+     * @param connectionProperties Properties of new connections: user, password, application name.
+     */
+    public ConnectionPool(String url, Properties connectionProperties, int maxSize, int minIdle,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, int statementCacheSize) {
+        this.url = url;
+        this.connectionProperties = connectionProperties;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens minimal amount of idle connections.
+     * @throws SQLException When database is unreachable.
+     */
+    public void warmUp() throws SQLException {
+        while (idleConnections.size() < minIdle) {
+            idleConnections.offerFirst(createConnection());
+        }
+    }
+
+    /**
+     * Takes a validated connection from the pool, waiting if all of them are busy.
+     * @return Pooled connection.
+     * @throws SQLException When pool is exhausted or database is unreachable.
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (isClosed) throw new SQLException("Connection pool is closed");
+        long startTime = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(exception);
+        }
+        recordWait(System.nanoTime() - startTime);
+        try {
+            PooledConnection pooledConnection;
+            while ((pooledConnection = idleConnections.pollFirst()) != null) {
+                if (pooledConnection.isValid(VALIDATION_TIMEOUT_SECONDS)) break;
+                discard(pooledConnection);
+            }
+            if (pooledConnection == null) pooledConnection = createConnection();
+            activeCount.incrementAndGet();
+            borrowCount.incrementAndGet();
+            return pooledConnection;
+        } catch (SQLException | RuntimeException exception) {
+            permits.release();
+            throw exception;
+        }
+    }
+
+    /**
+     * Returns connection to the pool.
+     * @param pooledConnection Connection to return.
+     */
+    public void release(PooledConnection pooledConnection) {
+        activeCount.decrementAndGet();
+        try {
+            if (isClosed || pooledConnection.getConnection().isClosed()) {
+                discard(pooledConnection);
+                return;
+            }
+            if (!pooledConnection.getConnection().getAutoCommit()) {
+                pooledConnection.getConnection().rollback();
+                pooledConnection.getConnection().setAutoCommit(true);
+            }
+            pooledConnection.resetTransaction();
+            pooledConnection.touch();
+            idleConnections.offerFirst(pooledConnection);
+        } catch (SQLException exception) {
+            discard(pooledConnection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes connections which were idle for too long, keeping minimal amount of them.
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext() && idleConnections.size() > minIdle) {
+            PooledConnection pooledConnection = iterator.next();
+            if (now - pooledConnection.getLastUsedTime() > idleTimeoutNanos && idleConnections.remove(pooledConnection))
+                discard(pooledConnection);
+        }
+    }
+
+    /**
+     * @return New connection to database.
+     * @throws SQLException When database is unreachable.
+     */
+    private PooledConnection createConnection() throws SQLException {
+        PooledConnection pooledConnection = new PooledConnection(DriverManager.getConnection(url, connectionProperties),
+                this, statementCacheSize);
+        createdCount.incrementAndGet();
+        return pooledConnection;
+    }
+
+    private void discard(PooledConnection pooledConnection) {
+        discardedCount.incrementAndGet();
+        pooledConnection.close();
+    }
+
+    /**
+     * Counts prepared statement taken from a cache.
+     */
+    public void recordStatementCacheHit() {
+        statementCacheHits.incrementAndGet();
+    }
+
+    /**
+     * Counts prepared statement which had to be prepared.
+     */
+    public void recordStatementCacheMiss() {
+        statementCacheMisses.incrementAndGet();
+    }
+
+    /**
+     * @return Amount of prepared statements taken from caches.
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * @return Amount of prepared statements which had to be prepared.
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Closes all idle connections and stops accepting new borrows.
+     */
+    public void close() {
+        isClosed = true;
+        evictor.shutdownNow();
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null) pooledConnection.close();
+    }
+
+    /**
+     * @return Amount of connections given out now.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * @return Amount of connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * @return Amount of threads waiting for a connection.
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return Average time of waiting for a connection in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        if (borrows == 0) return 0;
+        return totalWaitNanos.get() / 1e6 / borrows;
+    }
+
+    /**
+     * @return Maximal time of waiting for a connection in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool[max=" + maxSize +
+                ", active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", waiting=" + getWaitingCount() +
+                ", borrows=" + borrowCount.get() +
+                ", created=" + createdCount.get() +
+                ", discarded=" + discardedCount.get() +
+                ", timeouts=" + timeoutCount.get() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) +
+                ", statementCacheHits=" + getStatementCacheHits() +
+                ", statementCacheMisses=" + getStatementCacheMisses() + "]";
+    }
+}
@@ -0,0 +1,203 @@
+package server.utility;
+
+import common.exceptions.DatabaseHandlingException;
+import common.model.MusicBand;
+import common.utility.OutputDeliver;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the collection coherent with the database and other servers sharing it. Triggers notify about
+ * every changed band and the application name of the changing connection, the listener reads changed rows
+ * and applies them to the collection. Own changes are read too: a command may apply its change after
+ * a newer one of another server, then its own notification restores the current state.
+ * PostgreSQL driver is used through reflection, because it's loaded only at runtime.
+ */
+public class DatabaseChangeListener implements Runnable {
+    public static final String CHANNEL = "music_band_changes";
+    private static final String NOTIFY_FUNCTION = "music_band_notify";
+    private static final int WAIT_TIMEOUT = 1000;
+    private static final long RECONNECTION_TIMEOUT = 5 * 1000;
+
+    private final String CREATE_NOTIFY_FUNCTION = "CREATE OR REPLACE FUNCTION " + NOTIFY_FUNCTION +
+            "() RETURNS trigger AS $$ DECLARE changed_row jsonb; BEGIN " +
+            "IF TG_OP = 'DELETE' THEN changed_row := to_jsonb(OLD); ELSE changed_row := to_jsonb(NEW); END IF; " +
+            "PERFORM pg_notify('" + CHANNEL + "', (changed_row ->> TG_ARGV[0]) || ':' || " +
+            "current_setting('application_name')); " +
+            "RETURN NULL; END $$ LANGUAGE plpgsql";
+    private final String DROP_BAND_TRIGGER = "DROP TRIGGER IF EXISTS " + NOTIFY_FUNCTION + " ON " +
+            DatabaseHandler.BAND_TABLE;
+    private final String CREATE_BAND_TRIGGER = "CREATE TRIGGER " + NOTIFY_FUNCTION +
+            " AFTER INSERT OR UPDATE OR DELETE ON " + DatabaseHandler.BAND_TABLE +
+            " FOR EACH ROW EXECUTE PROCEDURE " + NOTIFY_FUNCTION + "('" + DatabaseHandler.BAND_TABLE_ID_COLUMN + "')";
+    private final String DROP_COORDINATES_TRIGGER = "DROP TRIGGER IF EXISTS " + NOTIFY_FUNCTION + " ON " +
+            DatabaseHandler.COORDINATES_TABLE;
+    private final String CREATE_COORDINATES_TRIGGER = "CREATE TRIGGER " + NOTIFY_FUNCTION +
+            " AFTER INSERT OR UPDATE OR DELETE ON " + DatabaseHandler.COORDINATES_TABLE +
+            " FOR EACH ROW EXECUTE PROCEDURE " + NOTIFY_FUNCTION +
+            "('" + DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + "')";
+    private final String LISTEN = "LISTEN " + CHANNEL;
+
+    private DatabaseHandler databaseHandler;
+    private DatabaseCollectionManager databaseCollectionManager;
+    private CollectionManager collectionManager;
+    private Connection connection;
+    private Method getNotificationsMethod;
+    private Method getParameterMethod;
+    private Thread thread;
+    private volatile boolean isRunning;
+
+    public DatabaseChangeListener(DatabaseHandler databaseHandler, DatabaseCollectionManager databaseCollectionManager,
+                                  CollectionManager collectionManager) {
+        this.databaseHandler = databaseHandler;
+        this.databaseCollectionManager = databaseCollectionManager;
+        this.collectionManager = collectionManager;
+    }
+
+    /**
+     * Installs triggers and starts listening.
+     * @return Is listener started.
+     */
+    public boolean start() {
+        try {
+            Class<?> connectionClass = Class.forName("org.postgresql.PGConnection");
+            getNotificationsMethod = connectionClass.getMethod("getNotifications", int.class);
+            getParameterMethod = Class.forName("org.postgresql.PGNotification").getMethod("getParameter");
+            connect();
+            installTriggers();
+        } catch (ClassNotFoundException | NoSuchMethodException exception) {
+            OutputDeliver.printError("Драйвер не поддерживает уведомления, изменения базы данных не отслеживаются!");
+            return false;
+        } catch (SQLException exception) {
+            OutputDeliver.printError("Не удалось подписаться на изменения базы данных!");
+            disconnect();
+            return false;
+        }
+        isRunning = true;
+        thread = new Thread(this, "database-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+        OutputDeliver.println("Изменения базы данных отслеживаются.");
+        return true;
+    }
+
+    /**
+     * Stops listening.
+     */
+    public void stop() {
+        isRunning = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                if (connection == null) {
+                    connect();
+                    // Notifications sent while listener was disconnected are lost.
+                    collectionManager.reloadCollection();
+                }
+                applyChanges(receiveChangedIds());
+            } catch (SQLException exception) {
+                if (!isRunning) break;
+                OutputDeliver.printError("Соединение для отслеживания изменений базы данных разорвано!");
+                disconnect();
+                try {
+                    Thread.sleep(RECONNECTION_TIMEOUT);
+                } catch (InterruptedException interruptedException) {
+                    break;
+                }
+            } catch (DatabaseHandlingException exception) {
+                OutputDeliver.printError("Не удалось применить изменения базы данных, коллекция будет перезагружена.");
+                collectionManager.reloadCollection();
+            }
+        }
+        disconnect();
+    }
+
+    private void connect() throws SQLException {
+        connection = databaseHandler.createDedicatedConnection();
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(LISTEN);
+        }
+    }
+
+    private void disconnect() {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (SQLException exception) {
+            OutputDeliver.printError("Произошла ошибка при закрытии соединения для отслеживания изменений!");
+        }
+        connection = null;
+    }
+
+    private void installTriggers() throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_NOTIFY_FUNCTION);
+            statement.execute(DROP_BAND_TRIGGER);
+            statement.execute(CREATE_BAND_TRIGGER);
+            statement.execute(DROP_COORDINATES_TRIGGER);
+            statement.execute(CREATE_COORDINATES_TRIGGER);
+            connection.commit();
+        } catch (SQLException exception) {
+            connection.rollback();
+            throw exception;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Waits for notifications and takes all which have already arrived.
+     * @return Ids of changed bands without repeats.
+     * @throws SQLException When connection is broken.
+     */
+    private Set<Integer> receiveChangedIds() throws SQLException {
+        Set<Integer> changedIds = new LinkedHashSet<>();
+        Object notifications;
+        try {
+            Object pgConnection = connection.unwrap(getNotificationsMethod.getDeclaringClass());
+            notifications = getNotificationsMethod.invoke(pgConnection, WAIT_TIMEOUT);
+            if (notifications == null) return changedIds;
+            for (int i = 0; i < Array.getLength(notifications); i++) {
+                String parameter = (String) getParameterMethod.invoke(Array.get(notifications, i));
+                int separatorIndex = parameter.indexOf(':');
+                try {
+                    changedIds.add(Integer.parseInt(separatorIndex >= 0 ?
+                            parameter.substring(0, separatorIndex) : parameter));
+                } catch (NumberFormatException exception) {
+                    OutputDeliver.printError("Получено неверное уведомление об изменении: '" + parameter + "'!");
+                }
+            }
+        } catch (IllegalAccessException exception) {
+            throw new SQLException(exception);
+        } catch (InvocationTargetException exception) {
+            if (exception.getCause() instanceof SQLException) throw (SQLException) exception.getCause();
+            throw new SQLException(exception.getCause());
+        }
+        return changedIds;
+    }
+
+    /**
+     * Reads changed bands and applies them to the collection.
+     * @param changedIds Ids of changed bands.
+     * @throws DatabaseHandlingException When bands can't be read.
+     */
+    private void applyChanges(Set<Integer> changedIds) throws DatabaseHandlingException {
+        if (changedIds.isEmpty()) return;
+        Map<Integer, MusicBand> changedBands = databaseCollectionManager.getBandsByIds(changedIds);
+        collectionManager.applyExternalChanges(changedIds, changedBands);
+    }
+}
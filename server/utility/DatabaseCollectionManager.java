@@ -2,25 +2,22 @@ package server.utility;
 
 import common.model.*;
 import common.exceptions.DatabaseHandlingException;
+import common.exceptions.ManualDatabaseEditException;
 import common.interaction.BandRaw;
 import common.interaction.User;
 import common.utility.OutputDeliver;
 
 import java.sql.*;
 import java.time.LocalDateTime;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.*;
 
 /**
  * Operates the database collection itself.
  */
 public class DatabaseCollectionManager {
     // BAND_TABLE
-    private final String SELECT_ALL_BANDS = "SELECT * FROM " + DatabaseHandler.BAND_TABLE;
-    private final String SELECT_BAND_BY_ID = SELECT_ALL_BANDS + " WHERE " +
-            DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
-    private final String SELECT_BAND_BY_ID_AND_USER_ID = SELECT_BAND_BY_ID + " AND " +
-            DatabaseHandler.BAND_TABLE_USER_ID_COLUMN + " = ?";
+    private final String SELECT_BAND_OWNERS = "SELECT " + DatabaseHandler.BAND_TABLE_ID_COLUMN + ", " +
+            DatabaseHandler.BAND_TABLE_USER_ID_COLUMN + " FROM " + DatabaseHandler.BAND_TABLE;
     private final String INSERT_BAND = "INSERT INTO " +
             DatabaseHandler.BAND_TABLE + " (" +
             DatabaseHandler.BAND_TABLE_ID_COLUMN + ", " +
@@ -31,53 +28,75 @@ public class DatabaseCollectionManager {
             DatabaseHandler.BAND_TABLE_GENRE_COLUMN + ", " +
             DatabaseHandler.BAND_TABLE_STUDIO_COLUMN + ", " +
             DatabaseHandler.BAND_TABLE_USER_ID_COLUMN + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-    private final String DELETE_BAND_BY_ID = "DELETE FROM " + DatabaseHandler.BAND_TABLE +
-            " WHERE " + DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
-    private final String DELETE_COORDINATES_BY_ID = "DELETE FROM " + DatabaseHandler.COORDINATES_TABLE +
-            " WHERE " + DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + " = ?";
-    private final String UPDATE_BAND_NAME_BY_ID = "UPDATE " + DatabaseHandler.BAND_TABLE + " SET " +
-            DatabaseHandler.BAND_TABLE_NAME_COLUMN + " = ?" + " WHERE " +
-            DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
-    private final String UPDATE_BAND_NUMBER_OF_PARTICIPANT_BY_ID = "UPDATE " + DatabaseHandler.BAND_TABLE + " SET " +
-            DatabaseHandler.BAND_TABLE_NUMBER_OF_PARTICIPANT_COLUMN + " = ?" + " WHERE " +
-            DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
-    private final String UPDATE_BAND_DESCRIPTION_BY_ID= "UPDATE " + DatabaseHandler.BAND_TABLE + " SET " +
-            DatabaseHandler.BAND_TABLE_DESCRIPTION_COLUMN + " = ?" + " WHERE " +
-            DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
-    private final String UPDATE_BAND_GENRE_BY_ID = "UPDATE " + DatabaseHandler.BAND_TABLE + " SET " +
-            DatabaseHandler.BAND_TABLE_GENRE_COLUMN + " = ?" + " WHERE " +
-            DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
-    private final String UPDATE_BAND_STUDIO_BY_ID = "UPDATE " + DatabaseHandler.BAND_TABLE + " SET " +
-            DatabaseHandler.BAND_TABLE_STUDIO_COLUMN + " = ?" + " WHERE " +
-            DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ?";
+    // Written by write-behind queue for updates, band which is deleted or belongs to another owner isn't changed.
+    private final String UPDATE_BAND_BY_ID_AND_USER_ID = "UPDATE " + DatabaseHandler.BAND_TABLE + " SET " +
+            DatabaseHandler.BAND_TABLE_NAME_COLUMN + " = ?, " +
+            DatabaseHandler.BAND_TABLE_NUMBER_OF_PARTICIPANT_COLUMN + " = ?, " +
+            DatabaseHandler.BAND_TABLE_DESCRIPTION_COLUMN + " = ?, " +
+            DatabaseHandler.BAND_TABLE_GENRE_COLUMN + " = ?, " +
+            DatabaseHandler.BAND_TABLE_STUDIO_COLUMN + " = ?" +
+            " WHERE " + DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ? AND " +
+            DatabaseHandler.BAND_TABLE_USER_ID_COLUMN + " = ?";
+    private final String DELETE_BANDS_BY_IDS_AND_USER_ID = "DELETE FROM " + DatabaseHandler.BAND_TABLE +
+            " WHERE " + DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ANY(?) AND " +
+            DatabaseHandler.BAND_TABLE_USER_ID_COLUMN + " = ?";
+    private final String DELETE_COORDINATES_BY_BAND_IDS = "DELETE FROM " + DatabaseHandler.COORDINATES_TABLE +
+            " WHERE " + DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + " = ANY(?)";
+    private final String SELECT_ALL_BANDS_WITH_DETAILS = "SELECT " +
+            DatabaseHandler.BAND_TABLE + ".*, " +
+            DatabaseHandler.COORDINATES_TABLE + "." + DatabaseHandler.COORDINATES_TABLE_X_COLUMN + ", " +
+            DatabaseHandler.COORDINATES_TABLE + "." + DatabaseHandler.COORDINATES_TABLE_Y_COLUMN + ", " +
+            DatabaseHandler.USER_TABLE + "." + DatabaseHandler.USER_TABLE_NAME_COLUMN + ", " +
+            DatabaseHandler.USER_TABLE + "." + DatabaseHandler.USER_TABLE_PASSWORD_COLUMN +
+            " FROM " + DatabaseHandler.BAND_TABLE +
+            " JOIN " + DatabaseHandler.COORDINATES_TABLE + " ON " +
+            DatabaseHandler.COORDINATES_TABLE + "." + DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + " = " +
+            DatabaseHandler.BAND_TABLE + "." + DatabaseHandler.BAND_TABLE_ID_COLUMN +
+            " JOIN " + DatabaseHandler.USER_TABLE + " ON " +
+            DatabaseHandler.USER_TABLE + "." + DatabaseHandler.USER_TABLE_ID_COLUMN + " = " +
+            DatabaseHandler.BAND_TABLE + "." + DatabaseHandler.BAND_TABLE_USER_ID_COLUMN;
+    private final String SELECT_BANDS_WITH_DETAILS_BY_IDS = SELECT_ALL_BANDS_WITH_DETAILS + " WHERE " +
+            DatabaseHandler.BAND_TABLE + "." + DatabaseHandler.BAND_TABLE_ID_COLUMN + " = ANY(?)";
     // COORDINATES_TABLE
-    private final String SELECT_ALL_COORDINATES = "SELECT * FROM " + DatabaseHandler.COORDINATES_TABLE;
-    private final String SELECT_COORDINATES_BY_BAND_ID = SELECT_ALL_COORDINATES +
-            " WHERE " + DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + " = ?";
     private final String INSERT_COORDINATES = "INSERT INTO " +
             DatabaseHandler.COORDINATES_TABLE + " (" +
             DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + ", " +
             DatabaseHandler.COORDINATES_TABLE_X_COLUMN + ", " +
             DatabaseHandler.COORDINATES_TABLE_Y_COLUMN + ") VALUES (?, ?, ?)";
-    private final String UPDATE_COORDINATES_BY_BAND_ID = "UPDATE " + DatabaseHandler.COORDINATES_TABLE + " SET " +
-            DatabaseHandler.COORDINATES_TABLE_X_COLUMN + " = ?, " +
-            DatabaseHandler.COORDINATES_TABLE_Y_COLUMN + " = ?" + " WHERE " +
-            DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN + " = ?";
+    // Partial update, see buildUpdateBandStatement()
+    private final String UPDATED_BAND = "updated_band";
+    private final String UPDATED_COORDINATES = "updated_coordinates";
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+
     private DatabaseHandler databaseHandler;
-    private DatabaseUserManager databaseUserManager;
+    private int fetchSize;
+    private WriteBehindQueue writeBehindQueue;
 
-    public DatabaseCollectionManager(DatabaseHandler databaseHandler, DatabaseUserManager databaseUserManager) {
+    public DatabaseCollectionManager(DatabaseHandler databaseHandler) {
+        this(databaseHandler, DEFAULT_FETCH_SIZE);
+    }
+
+    public DatabaseCollectionManager(DatabaseHandler databaseHandler, int fetchSize) {
         this.databaseHandler = databaseHandler;
-        this.databaseUserManager = databaseUserManager;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Switches to write-behind mode, changes are written to the journal and reach the database later.
+     * @param writeBehindQueue Queue of changes.
+     */
+    public void setWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
     }
 
     /**
      * Create Band.
-     * @param resultSet Result set parameters of Band.
+     * @param resultSet Result set parameters of Band and its coordinates.
+     * @param owner Owner of the band.
      * @return New Band.
      * @throws SQLException When there's exception inside.
      */
-    private MusicBand createBand(ResultSet resultSet) throws SQLException {
+    private MusicBand createBand(ResultSet resultSet, User owner) throws SQLException {
         int id = resultSet.getInt(DatabaseHandler.BAND_TABLE_ID_COLUMN);
         String name = resultSet.getString(DatabaseHandler.BAND_TABLE_NAME_COLUMN);
         LocalDateTime creationDate = resultSet.getTimestamp(DatabaseHandler.BAND_TABLE_CREATION_DATE_COLUMN).toLocalDateTime();
@@ -85,8 +104,10 @@ public class DatabaseCollectionManager {
         String description = resultSet.getString(DatabaseHandler.BAND_TABLE_DESCRIPTION_COLUMN);
         MusicGenre genre = MusicGenre.valueOf(resultSet.getString(DatabaseHandler.BAND_TABLE_GENRE_COLUMN));
         Studio studio = new Studio(resultSet.getString(DatabaseHandler.BAND_TABLE_STUDIO_COLUMN));
-        Coordinates coordinates = getCoordinatesByBandId(id);
-        User owner = databaseUserManager.getUserById(resultSet.getLong(DatabaseHandler.BAND_TABLE_USER_ID_COLUMN));
+        Coordinates coordinates = new Coordinates(
+                resultSet.getDouble(DatabaseHandler.COORDINATES_TABLE_X_COLUMN),
+                resultSet.getLong(DatabaseHandler.COORDINATES_TABLE_Y_COLUMN)
+        );
         return new MusicBand(
                 id,
                 name,
@@ -101,77 +122,111 @@ public class DatabaseCollectionManager {
     }
 
     /**
+     * Takes owner of the band from the result set, creating each owner only once.
+     * @param resultSet Result set parameters of Band and its owner.
+     * @param owners Already created owners by their id.
+     * @return Owner of the band.
+     * @throws SQLException When there's exception inside.
+     */
+    private User createOwner(ResultSet resultSet, Map<Long, User> owners) throws SQLException {
+        long ownerId = resultSet.getLong(DatabaseHandler.BAND_TABLE_USER_ID_COLUMN);
+        User owner = owners.get(ownerId);
+        if (owner == null) {
+            owner = new User(
+                    ownerId,
+                    resultSet.getString(DatabaseHandler.USER_TABLE_NAME_COLUMN),
+                    resultSet.getString(DatabaseHandler.USER_TABLE_PASSWORD_COLUMN)
+            );
+            owners.put(ownerId, owner);
+        }
+        return owner;
+    }
+
+    /**
+     * Loads all bands with their coordinates and owners in one query.
+     * In write-behind mode changes not written yet are applied to the loaded bands.
      * @return List of Bands.
      * @throws DatabaseHandlingException When there's exception inside.
      */
     public HashMap<Integer, MusicBand> getCollection() throws DatabaseHandlingException {
+        if (writeBehindQueue == null) return selectCollection();
+        synchronized (writeBehindQueue) {
+            HashMap<Integer, MusicBand> bandList = selectCollection();
+            writeBehindQueue.applyPendingTo(bandList, null);
+            return bandList;
+        }
+    }
+
+    private HashMap<Integer, MusicBand> selectCollection() throws DatabaseHandlingException {
         HashMap<Integer, MusicBand> bandList = new HashMap<>();
+        Map<Long, User> owners = new HashMap<>();
         PreparedStatement preparedSelectAllStatement = null;
         try {
-            preparedSelectAllStatement = databaseHandler.getPreparedStatement(SELECT_ALL_BANDS, false);
+            // PostgreSQL streams rows by fetch size only inside a transaction.
+            databaseHandler.setCommitMode();
+            preparedSelectAllStatement = databaseHandler.getPreparedStatement(SELECT_ALL_BANDS_WITH_DETAILS, false);
+            preparedSelectAllStatement.setFetchSize(fetchSize);
             ResultSet resultSet = preparedSelectAllStatement.executeQuery();
             while (resultSet.next()) {
-                MusicBand newBand = createBand(resultSet);
+                MusicBand newBand = createBand(resultSet, createOwner(resultSet, owners));
                 bandList.put(newBand.getId(), newBand);
             }
+            if (!databaseHandler.commit()) throw new SQLException();
+            OutputDeliver.println("Выполнен запрос SELECT_ALL_BANDS_WITH_DETAILS.");
         } catch (SQLException exception) {
+            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_ALL_BANDS_WITH_DETAILS!");
+            databaseHandler.rollback();
             throw new DatabaseHandlingException();
         } finally {
             databaseHandler.closePreparedStatement(preparedSelectAllStatement);
+            databaseHandler.setNormalMode();
         }
         return bandList;
     }
 
     /**
-     * @param bandId Id of Band.
-     * @return coordinates.
-     * @throws SQLException When there's exception inside.
-     */
-    private Coordinates getCoordinatesByBandId(Integer bandId) throws SQLException {
-        Coordinates coordinates;
-        PreparedStatement preparedSelectCoordinatesByBandIdStatement = null;
-        try {
-            preparedSelectCoordinatesByBandIdStatement =
-                    databaseHandler.getPreparedStatement(SELECT_COORDINATES_BY_BAND_ID, false);
-            preparedSelectCoordinatesByBandIdStatement.setLong(1, bandId);
-            ResultSet resultSet = preparedSelectCoordinatesByBandIdStatement.executeQuery();
-            OutputDeliver.println("Выполнен запрос SELECT_COORDINATES_BY_BAND_ID.");
-            if (resultSet.next()) {
-                coordinates = new Coordinates(
-                        resultSet.getDouble(DatabaseHandler.COORDINATES_TABLE_X_COLUMN),
-                        resultSet.getLong(DatabaseHandler.COORDINATES_TABLE_Y_COLUMN)
-                );
-            } else throw new SQLException();
-        } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_COORDINATES_BY_BAND_ID!");
-            throw new SQLException(exception);
-        } finally {
-            databaseHandler.closePreparedStatement(preparedSelectCoordinatesByBandIdStatement);
-        }
-        return coordinates;
-    }
-
-    /**
-     * Delete Band by id.
-     * @param bandId Id of Band.
+     * Deletes bands of the user in one transaction. Nothing is deleted if some of bands don't belong to the user.
+     * @param bandIds Ids of bands.
+     * @param user Owner of bands.
      * @throws DatabaseHandlingException When there's exception inside.
+     * @throws ManualDatabaseEditException When some of bands don't belong to the user in the database.
      */
-    public void deleteBandById(Integer bandId) throws DatabaseHandlingException {
-        PreparedStatement preparedDeleteBandByIdStatement = null;
-        PreparedStatement preparedDeleteCoordinatesByIdStatement = null;
+    public void deleteBandsByIds(Collection<Integer> bandIds, User user)
+            throws DatabaseHandlingException, ManualDatabaseEditException {
+        if (bandIds.isEmpty()) return;
+        if (writeBehindQueue != null) {
+            writeBehindQueue.delete(bandIds, user.getId());
+            return;
+        }
+        PreparedStatement preparedDeleteBandsStatement = null;
+        PreparedStatement preparedDeleteCoordinatesStatement = null;
         try {
-            preparedDeleteBandByIdStatement = databaseHandler.getPreparedStatement(DELETE_BAND_BY_ID, false);
-            preparedDeleteBandByIdStatement.setInt(1, bandId);
-            preparedDeleteCoordinatesByIdStatement = databaseHandler.getPreparedStatement(DELETE_COORDINATES_BY_ID, false);
-            preparedDeleteCoordinatesByIdStatement.setInt(1, bandId);
-            if (preparedDeleteBandByIdStatement.executeUpdate() == 0) OutputDeliver.println(3);
-            if (preparedDeleteCoordinatesByIdStatement.executeUpdate() == 0) OutputDeliver.println(3);
+            databaseHandler.setCommitMode();
+            Array ids = databaseHandler.createArray("integer", bandIds.toArray());
+
+            preparedDeleteBandsStatement = databaseHandler.getPreparedStatement(DELETE_BANDS_BY_IDS_AND_USER_ID, false);
+            preparedDeleteBandsStatement.setArray(1, ids);
+            preparedDeleteBandsStatement.setLong(2, user.getId());
+            if (preparedDeleteBandsStatement.executeUpdate() != bandIds.size()) {
+                databaseHandler.rollback();
+                throw new ManualDatabaseEditException();
+            }
+            OutputDeliver.println("Выполнен запрос DELETE_BANDS_BY_IDS_AND_USER_ID.");
+
+            preparedDeleteCoordinatesStatement = databaseHandler.getPreparedStatement(DELETE_COORDINATES_BY_BAND_IDS, false);
+            preparedDeleteCoordinatesStatement.setArray(1, ids);
+            preparedDeleteCoordinatesStatement.executeUpdate();
+            OutputDeliver.println("Выполнен запрос DELETE_COORDINATES_BY_BAND_IDS.");
+
+            if (!databaseHandler.commit()) throw new SQLException();
         } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при выполнении запроса DELETE_BAND_BY_ID!");
+            OutputDeliver.printError("Произошла ошибка при выполнении группы запросов на удаление объектов!");
+            databaseHandler.rollback();
             throw new DatabaseHandlingException();
         } finally {
-            databaseHandler.closePreparedStatement(preparedDeleteBandByIdStatement);
-            databaseHandler.closePreparedStatement(preparedDeleteCoordinatesByIdStatement);
+            databaseHandler.closePreparedStatement(preparedDeleteBandsStatement);
+            databaseHandler.closePreparedStatement(preparedDeleteCoordinatesStatement);
+            databaseHandler.setNormalMode();
         }
     }
 
@@ -182,6 +237,21 @@ public class DatabaseCollectionManager {
      * @throws DatabaseHandlingException When there's exception inside.
      */
     public MusicBand insertBand(BandRaw bandRaw, String bandStringId, User user) throws DatabaseHandlingException {
+        if (writeBehindQueue != null) {
+            MusicBand band = new MusicBand(
+                    Integer.parseInt(bandStringId),
+                    bandRaw.getName(),
+                    bandRaw.getCoordinates(),
+                    LocalDateTime.now(),
+                    bandRaw.getNumberOfParticipants(),
+                    bandRaw.getDescription(),
+                    bandRaw.getMusicGenre(),
+                    bandRaw.getStudio(),
+                    user
+            );
+            writeBehindQueue.insert(band);
+            return band;
+        }
         MusicBand band;
         PreparedStatement preparedInsertBandStatement = null;
         PreparedStatement preparedInsertCoordinatesStatement = null;
@@ -202,7 +272,7 @@ public class DatabaseCollectionManager {
             preparedInsertBandStatement.setString(5, bandRaw.getDescription());
             preparedInsertBandStatement.setString(6, bandRaw.getMusicGenre().toString());
             preparedInsertBandStatement.setString(7, bandRaw.getStudio().toString());
-            preparedInsertBandStatement.setLong(8, databaseUserManager.getUserIdByUsername(user));
+            preparedInsertBandStatement.setLong(8, user.getId());
             if (preparedInsertBandStatement.executeUpdate() == 0) throw new SQLException();
             OutputDeliver.println("Выполнен запрос INSERT_BAND.");
 
@@ -224,7 +294,7 @@ public class DatabaseCollectionManager {
                     user
             );
 
-            databaseHandler.commit();
+            if (!databaseHandler.commit()) throw new SQLException();
             return band;
         } catch (SQLException exception) {
             OutputDeliver.printError("Произошла ошибка при выполнении группы запросов на добавление нового объекта!\n" + exception.getSQLState() + "\n");
@@ -239,111 +309,351 @@ public class DatabaseCollectionManager {
     }
 
     /**
-     * @param bandRaw Band raw.
+     * Builds one statement updating only the given fields of the band and its coordinates, if the band belongs
+     * to the owner. The statement returns the whole updated band with its coordinates.
+     * @param bandId Id of Band.
+     * @param bandRaw Band raw, null fields (and -1 as number of participants) are left unchanged.
+     * @param ownerId Id of the owner of Band.
+     * @param parameters List to fill with values of statement parameters.
+     * @return SQL statement.
+     */
+    private String buildUpdateBandStatement(Integer bandId, BandRaw bandRaw, long ownerId, List<Object> parameters) {
+        List<String> assignments = new ArrayList<>();
+        if (bandRaw.getName() != null) {
+            assignments.add(DatabaseHandler.BAND_TABLE_NAME_COLUMN + " = ?");
+            parameters.add(bandRaw.getName());
+        }
+        if (bandRaw.getNumberOfParticipants() != -1) {
+            assignments.add(DatabaseHandler.BAND_TABLE_NUMBER_OF_PARTICIPANT_COLUMN + " = ?");
+            parameters.add(bandRaw.getNumberOfParticipants());
+        }
+        if (bandRaw.getDescription() != null) {
+            assignments.add(DatabaseHandler.BAND_TABLE_DESCRIPTION_COLUMN + " = ?");
+            parameters.add(bandRaw.getDescription());
+        }
+        if (bandRaw.getMusicGenre() != null) {
+            assignments.add(DatabaseHandler.BAND_TABLE_GENRE_COLUMN + " = ?");
+            parameters.add(bandRaw.getMusicGenre().toString());
+        }
+        if (bandRaw.getStudio() != null) {
+            assignments.add(DatabaseHandler.BAND_TABLE_STUDIO_COLUMN + " = ?");
+            parameters.add(bandRaw.getStudio().toString());
+        }
+        StringBuilder sql = new StringBuilder("WITH ").append(UPDATED_BAND).append(" AS (");
+        if (assignments.isEmpty()) {
+            sql.append("SELECT * FROM ").append(DatabaseHandler.BAND_TABLE);
+        } else {
+            sql.append("UPDATE ").append(DatabaseHandler.BAND_TABLE).append(" SET ")
+                    .append(String.join(", ", assignments));
+        }
+        sql.append(" WHERE ").append(DatabaseHandler.BAND_TABLE_ID_COLUMN).append(" = ? AND ")
+                .append(DatabaseHandler.BAND_TABLE_USER_ID_COLUMN).append(" = ?");
+        parameters.add(bandId);
+        parameters.add(ownerId);
+        if (!assignments.isEmpty()) sql.append(" RETURNING *");
+        sql.append("), ").append(UPDATED_COORDINATES).append(" AS (");
+        if (bandRaw.getCoordinates() != null) {
+            sql.append("UPDATE ").append(DatabaseHandler.COORDINATES_TABLE).append(" SET ")
+                    .append(DatabaseHandler.COORDINATES_TABLE_X_COLUMN).append(" = ?, ")
+                    .append(DatabaseHandler.COORDINATES_TABLE_Y_COLUMN).append(" = ?");
+            parameters.add(bandRaw.getCoordinates().getX());
+            parameters.add(bandRaw.getCoordinates().getY());
+        } else {
+            sql.append("SELECT * FROM ").append(DatabaseHandler.COORDINATES_TABLE);
+        }
+        sql.append(" WHERE ").append(DatabaseHandler.COORDINATES_TABLE_BAND_ID_COLUMN).append(" IN (SELECT ")
+                .append(DatabaseHandler.BAND_TABLE_ID_COLUMN).append(" FROM ").append(DatabaseHandler.BAND_TABLE)
+                .append(" WHERE ").append(DatabaseHandler.BAND_TABLE_ID_COLUMN).append(" = ? AND ")
+                .append(DatabaseHandler.BAND_TABLE_USER_ID_COLUMN).append(" = ?)");
+        parameters.add(bandId);
+        parameters.add(ownerId);
+        if (bandRaw.getCoordinates() != null) sql.append(" RETURNING *");
+        sql.append(") SELECT ").append(UPDATED_BAND).append(".*, ")
+                .append(UPDATED_COORDINATES).append(".").append(DatabaseHandler.COORDINATES_TABLE_X_COLUMN).append(", ")
+                .append(UPDATED_COORDINATES).append(".").append(DatabaseHandler.COORDINATES_TABLE_Y_COLUMN)
+                .append(" FROM ").append(UPDATED_BAND).append(", ").append(UPDATED_COORDINATES);
+        return sql.toString();
+    }
+
+    /**
+     * Updates given fields of the band with one statement.
+     * @param bandRaw Band raw, null fields (and -1 as number of participants) are left unchanged.
      * @param bandId  Id of Band.
+     * @param owner Owner of Band.
+     * @return Updated band as it is stored in the database.
      * @throws DatabaseHandlingException When there's exception inside.
+     * @throws ManualDatabaseEditException When the band doesn't belong to the owner in the database.
      */
-    public void updateBandById(Integer bandId, BandRaw bandRaw) throws DatabaseHandlingException {
-        PreparedStatement preparedUpdateBandNameByIdStatement = null;
-        PreparedStatement preparedUpdateBandNumberOfParticipantByIdStatement = null;
-        PreparedStatement preparedUpdateBandDescriptionByIdStatement = null;
-        PreparedStatement preparedUpdateBandGenreByIdStatement = null;
-        PreparedStatement preparedUpdateBandStudioByIdStatement = null;
-        PreparedStatement preparedUpdateCoordinatesByBandIdStatement = null;
+    public MusicBand updateBandById(Integer bandId, BandRaw bandRaw, User owner)
+            throws DatabaseHandlingException, ManualDatabaseEditException {
+        PreparedStatement preparedUpdateBandByIdStatement = null;
         try {
             databaseHandler.setCommitMode();
-            databaseHandler.setSavepoint();
 
-            preparedUpdateBandNameByIdStatement = databaseHandler.getPreparedStatement(UPDATE_BAND_NAME_BY_ID, false);
-            preparedUpdateBandNumberOfParticipantByIdStatement = databaseHandler.getPreparedStatement(UPDATE_BAND_NUMBER_OF_PARTICIPANT_BY_ID, false);
-            preparedUpdateBandDescriptionByIdStatement = databaseHandler.getPreparedStatement(UPDATE_BAND_DESCRIPTION_BY_ID, false);
-            preparedUpdateBandGenreByIdStatement = databaseHandler.getPreparedStatement(UPDATE_BAND_GENRE_BY_ID, false);
-            preparedUpdateBandStudioByIdStatement = databaseHandler.getPreparedStatement(UPDATE_BAND_STUDIO_BY_ID, false);
-            preparedUpdateCoordinatesByBandIdStatement = databaseHandler.getPreparedStatement(UPDATE_COORDINATES_BY_BAND_ID, false);
-
-            if (bandRaw.getName() != null) {
-                preparedUpdateBandNameByIdStatement.setString(1, bandRaw.getName());
-                preparedUpdateBandNameByIdStatement.setLong(2, bandId);
-                if (preparedUpdateBandNameByIdStatement.executeUpdate() == 0) throw new SQLException();
-                OutputDeliver.println("Выполнен запрос UPDATE_BAND_NAME_BY_ID.");
-            }
-            if (bandRaw.getCoordinates() != null) {
-                preparedUpdateCoordinatesByBandIdStatement.setDouble(1, bandRaw.getCoordinates().getX());
-                preparedUpdateCoordinatesByBandIdStatement.setFloat(2, bandRaw.getCoordinates().getY());
-                preparedUpdateCoordinatesByBandIdStatement.setLong(3, bandId);
-                if (preparedUpdateCoordinatesByBandIdStatement.executeUpdate() == 0) throw new SQLException();
-                OutputDeliver.println("Выполнен запрос UPDATE_COORDINATES_BY_BAND_ID.");
+            List<Object> parameters = new ArrayList<>();
+            preparedUpdateBandByIdStatement = databaseHandler.getPreparedStatement(
+                    buildUpdateBandStatement(bandId, bandRaw, owner.getId(), parameters), false);
+            for (int i = 0; i < parameters.size(); i++) {
+                preparedUpdateBandByIdStatement.setObject(i + 1, parameters.get(i));
             }
-            if (bandRaw.getNumberOfParticipants() != -1) {
-                preparedUpdateBandNumberOfParticipantByIdStatement.setLong(1, bandRaw.getNumberOfParticipants());
-                preparedUpdateBandNumberOfParticipantByIdStatement.setLong(2, bandId);
-                if (preparedUpdateBandNumberOfParticipantByIdStatement.executeUpdate() == 0) throw new SQLException();
-                OutputDeliver.println("Выполнен запрос UPDATE_BAND_NUMBER_PARTICIPANT_BY_ID.");
+            ResultSet resultSet = preparedUpdateBandByIdStatement.executeQuery();
+            if (!resultSet.next()) {
+                databaseHandler.rollback();
+                throw new ManualDatabaseEditException();
             }
-            if (bandRaw.getDescription() != null) {
-                preparedUpdateBandDescriptionByIdStatement.setString(1, bandRaw.getDescription());
+            MusicBand band = createBand(resultSet, owner);
+            OutputDeliver.println("Выполнен запрос UPDATE_BAND_BY_ID.");
+
+            if (!databaseHandler.commit()) throw new SQLException();
+            return band;
+        } catch (SQLException exception) {
+            OutputDeliver.printError("Произошла ошибка при выполнении запроса на обновление объекта!");
+            databaseHandler.rollback();
+            throw new DatabaseHandlingException();
+        } finally {
+            databaseHandler.closePreparedStatement(preparedUpdateBandByIdStatement);
+            databaseHandler.setNormalMode();
+        }
+    }
+
+    /**
+     * Updates given fields of the band, directly or through write-behind queue.
+     * @param oldBand Band as it is stored in the collection.
+     * @param bandRaw Band raw, null fields (and -1 as number of participants) are left unchanged.
+     * @return Updated band.
+     * @throws DatabaseHandlingException When there's exception inside.
+     * @throws ManualDatabaseEditException When the band doesn't belong to its owner in the database.
+     */
+    public MusicBand updateBand(MusicBand oldBand, BandRaw bandRaw)
+            throws DatabaseHandlingException, ManualDatabaseEditException {
+        if (writeBehindQueue == null) return updateBandById(oldBand.getId(), bandRaw, oldBand.getOwner());
+        MusicBand band = new MusicBand(
+                oldBand.getId(),
+                bandRaw.getName() != null ? bandRaw.getName() : oldBand.getName(),
+                bandRaw.getCoordinates() != null ? bandRaw.getCoordinates() : oldBand.getCoordinates(),
+                oldBand.getCreationDate(),
+                bandRaw.getNumberOfParticipants() != -1 ? bandRaw.getNumberOfParticipants() : oldBand.getNumberOfParticipants(),
+                bandRaw.getDescription() != null ? bandRaw.getDescription() : oldBand.getDescription(),
+                bandRaw.getMusicGenre() != null ? bandRaw.getMusicGenre() : oldBand.getGenre(),
+                bandRaw.getStudio() != null ? bandRaw.getStudio() : oldBand.getStudio(),
+                oldBand.getOwner()
+        );
+        writeBehindQueue.update(band);
+        return band;
+    }
+
+    /**
+     * Writes changes of write-behind queue in one transaction. Bands are deleted first, so a band may be
+     * deleted and inserted again.
+     * @param insertedBands New bands.
+     * @param updatedBands Bands to be replaced.
+     * @param deletedBands Owner id by id of band to be deleted.
+     * @throws DatabaseHandlingException When there's exception inside.
+     * @throws ManualDatabaseEditException When some of updated or deleted bands are absent or belong
+     * to another user in the database or the database rejects the bands.
+     */
+    public void writeBands(Collection<MusicBand> insertedBands, Collection<MusicBand> updatedBands,
+                           Map<Integer, Long> deletedBands)
+            throws DatabaseHandlingException, ManualDatabaseEditException {
+        if (insertedBands.isEmpty() && updatedBands.isEmpty() && deletedBands.isEmpty()) return;
+        PreparedStatement preparedDeleteBandsStatement = null;
+        PreparedStatement preparedDeleteCoordinatesStatement = null;
+        PreparedStatement preparedInsertBandStatement = null;
+        PreparedStatement preparedUpdateBandStatement = null;
+        PreparedStatement preparedInsertCoordinatesStatement = null;
+        try {
+            databaseHandler.setCommitMode();
+            List<Integer> bandIds = new ArrayList<>();
+            Map<Long, List<Integer>> deletedBandsByOwner = new HashMap<>();
+            deletedBands.forEach((bandId, ownerId) ->
+                    deletedBandsByOwner.computeIfAbsent(ownerId, id -> new ArrayList<>()).add(bandId));
+            preparedDeleteBandsStatement = databaseHandler.getPreparedStatement(DELETE_BANDS_BY_IDS_AND_USER_ID +
+                    " RETURNING " + DatabaseHandler.BAND_TABLE_ID_COLUMN, false);
+            for (Map.Entry<Long, List<Integer>> entry : deletedBandsByOwner.entrySet()) {
+                preparedDeleteBandsStatement.setArray(1, databaseHandler.createArray("integer", entry.getValue().toArray()));
+                preparedDeleteBandsStatement.setLong(2, entry.getKey());
+                ResultSet resultSet = preparedDeleteBandsStatement.executeQuery();
+                Set<Integer> returnedIds = new HashSet<>();
+                while (resultSet.next()) returnedIds.add(resultSet.getInt(DatabaseHandler.BAND_TABLE_ID_COLUMN));
+                if (!returnedIds.containsAll(entry.getValue())) {
+                    databaseHandler.rollback();
+                    throw new ManualDatabaseEditException();
+                }
+                bandIds.addAll(returnedIds);
             }
-            if (bandRaw.getMusicGenre() != null) {
-                preparedUpdateBandGenreByIdStatement.setString(1, bandRaw.getMusicGenre().toString());
-                preparedUpdateBandGenreByIdStatement.setLong(2, bandId);
-                if (preparedUpdateBandGenreByIdStatement.executeUpdate() == 0) throw new SQLException();
-                OutputDeliver.println("Выполнен запрос UPDATE_BAND_MUSIC_GENRE_BY_ID.");
+
+            for (MusicBand band : updatedBands) bandIds.add(band.getId());
+            preparedDeleteCoordinatesStatement = databaseHandler.getPreparedStatement(DELETE_COORDINATES_BY_BAND_IDS, false);
+            preparedDeleteCoordinatesStatement.setArray(1, databaseHandler.createArray("integer", bandIds.toArray()));
+            preparedDeleteCoordinatesStatement.executeUpdate();
+
+            preparedInsertCoordinatesStatement = databaseHandler.getPreparedStatement(INSERT_COORDINATES, false);
+            if (!insertedBands.isEmpty()) {
+                preparedInsertBandStatement = databaseHandler.getPreparedStatement(INSERT_BAND, false);
+                for (MusicBand band : insertedBands) {
+                    addBandToBatch(preparedInsertBandStatement, band);
+                    addCoordinatesToBatch(preparedInsertCoordinatesStatement, band);
+                }
+                preparedInsertBandStatement.executeBatch();
             }
-            if (bandRaw.getStudio() != null) {
-                preparedUpdateBandStudioByIdStatement.setString(1, bandRaw.getStudio().toString());
-                preparedUpdateBandStudioByIdStatement.setLong(2, bandId);
-                if (preparedUpdateBandStudioByIdStatement.executeUpdate() == 0) throw new SQLException();
-                OutputDeliver.println("Выполнен запрос UPDATE_BAND_STUDIO_BY_ID.");
+            if (!updatedBands.isEmpty()) {
+                preparedUpdateBandStatement = databaseHandler.getPreparedStatement(UPDATE_BAND_BY_ID_AND_USER_ID, false);
+                for (MusicBand band : updatedBands) {
+                    addUpdateToBatch(preparedUpdateBandStatement, band);
+                    addCoordinatesToBatch(preparedInsertCoordinatesStatement, band);
+                }
+                for (int count : preparedUpdateBandStatement.executeBatch()) {
+                    if (count == 0) {
+                        databaseHandler.rollback();
+                        throw new ManualDatabaseEditException();
+                    }
+                }
             }
+            preparedInsertCoordinatesStatement.executeBatch();
 
-            databaseHandler.commit();
+            if (!databaseHandler.commit()) throw new SQLException();
+            OutputDeliver.println("Записано отложенных изменений: " +
+                    (insertedBands.size() + updatedBands.size() + deletedBands.size()) + ".");
         } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при выполнении группы запросов на обновление объекта!");
             databaseHandler.rollback();
+            if (isRejected(exception)) {
+                OutputDeliver.printError("База данных отклонила отложенные изменения!");
+                throw new ManualDatabaseEditException();
+            }
+            OutputDeliver.printError("Произошла ошибка при записи отложенных изменений!");
             throw new DatabaseHandlingException();
         } finally {
-            databaseHandler.closePreparedStatement(preparedUpdateBandNameByIdStatement);
-            databaseHandler.closePreparedStatement(preparedUpdateBandNumberOfParticipantByIdStatement);
-            databaseHandler.closePreparedStatement(preparedUpdateBandDescriptionByIdStatement);
-            databaseHandler.closePreparedStatement(preparedUpdateBandGenreByIdStatement);
-            databaseHandler.closePreparedStatement(preparedUpdateBandStudioByIdStatement);
-            databaseHandler.closePreparedStatement(preparedUpdateCoordinatesByBandIdStatement);
+            databaseHandler.closePreparedStatement(preparedDeleteBandsStatement);
+            databaseHandler.closePreparedStatement(preparedDeleteCoordinatesStatement);
+            databaseHandler.closePreparedStatement(preparedInsertBandStatement);
+            databaseHandler.closePreparedStatement(preparedUpdateBandStatement);
+            databaseHandler.closePreparedStatement(preparedInsertCoordinatesStatement);
             databaseHandler.setNormalMode();
         }
     }
 
     /**
-     * Checks Band user id.
-     * @param bandId Id of Band.
-     * @param user Owner of band.
+     * Adds parameters of the band to the batch of INSERT_BAND.
+     */
+    private void addBandToBatch(PreparedStatement preparedStatement, MusicBand band) throws SQLException {
+        preparedStatement.setInt(1, band.getId());
+        preparedStatement.setString(2, band.getName());
+        preparedStatement.setTimestamp(3, Timestamp.valueOf(band.getCreationDate()));
+        preparedStatement.setLong(4, band.getNumberOfParticipants());
+        preparedStatement.setString(5, band.getDescription());
+        preparedStatement.setString(6, band.getGenre().toString());
+        preparedStatement.setString(7, band.getStudio() == null ? null : band.getStudio().toString());
+        preparedStatement.setLong(8, band.getOwnerId());
+        preparedStatement.addBatch();
+    }
+
+    /**
+     * Adds parameters of the band to the batch of UPDATE_BAND_BY_ID_AND_USER_ID.
+     */
+    private void addUpdateToBatch(PreparedStatement preparedStatement, MusicBand band) throws SQLException {
+        preparedStatement.setString(1, band.getName());
+        preparedStatement.setLong(2, band.getNumberOfParticipants());
+        preparedStatement.setString(3, band.getDescription());
+        preparedStatement.setString(4, band.getGenre().toString());
+        preparedStatement.setString(5, band.getStudio() == null ? null : band.getStudio().toString());
+        preparedStatement.setInt(6, band.getId());
+        preparedStatement.setLong(7, band.getOwnerId());
+        preparedStatement.addBatch();
+    }
+
+    /**
+     * Adds coordinates of the band to the batch of INSERT_COORDINATES.
+     */
+    private void addCoordinatesToBatch(PreparedStatement preparedStatement, MusicBand band) throws SQLException {
+        preparedStatement.setLong(1, band.getId());
+        preparedStatement.setDouble(2, band.getCoordinates().getX());
+        preparedStatement.setLong(3, band.getCoordinates().getY());
+        preparedStatement.addBatch();
+    }
+
+    /**
+     * Tells rejected data from unavailable database: data exceptions (class 22) and integrity
+     * constraint violations (class 23) won't disappear if the same statement is repeated.
+     * @param exception Exception thrown by the driver, batch exceptions are chained.
+     * @return Is statement rejected because of its data.
+     */
+    private boolean isRejected(SQLException exception) {
+        for (SQLException current = exception; current != null; current = current.getNextException()) {
+            String sqlState = current.getSQLState();
+            if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads owners of all bands without their other fields.
+     * In write-behind mode changes not written yet are applied to the read owners.
+     * @return Owner id by band id.
      * @throws DatabaseHandlingException When there's exception inside.
-     * @return Is everything ok.
      */
-    public boolean checkBandUserId(Integer bandId, User user) throws DatabaseHandlingException {
-        PreparedStatement preparedSelectBandByIdAndUserIdStatement = null;
+    public Map<Integer, Long> getBandOwners() throws DatabaseHandlingException {
+        if (writeBehindQueue == null) return selectBandOwners();
+        synchronized (writeBehindQueue) {
+            Map<Integer, Long> bandOwners = selectBandOwners();
+            writeBehindQueue.applyPendingOwnersTo(bandOwners);
+            return bandOwners;
+        }
+    }
+
+    private Map<Integer, Long> selectBandOwners() throws DatabaseHandlingException {
+        Map<Integer, Long> bandOwners = new HashMap<>();
+        PreparedStatement preparedSelectBandOwnersStatement = null;
         try {
-            preparedSelectBandByIdAndUserIdStatement = databaseHandler.getPreparedStatement(SELECT_BAND_BY_ID_AND_USER_ID, false);
-            preparedSelectBandByIdAndUserIdStatement.setLong(1, bandId);
-            preparedSelectBandByIdAndUserIdStatement.setLong(2, databaseUserManager.getUserIdByUsername(user));
-            ResultSet resultSet = preparedSelectBandByIdAndUserIdStatement.executeQuery();
-            OutputDeliver.println("Выполнен запрос SELECT_BAND_BY_ID_AND_USER_ID.");
-            return resultSet.next();
+            preparedSelectBandOwnersStatement = databaseHandler.getPreparedStatement(SELECT_BAND_OWNERS, false);
+            ResultSet resultSet = preparedSelectBandOwnersStatement.executeQuery();
+            while (resultSet.next()) {
+                bandOwners.put(resultSet.getInt(DatabaseHandler.BAND_TABLE_ID_COLUMN),
+                        resultSet.getLong(DatabaseHandler.BAND_TABLE_USER_ID_COLUMN));
+            }
+            return bandOwners;
         } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_BAND_BY_ID_AND_USER_ID!");
+            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_BAND_OWNERS!");
             throw new DatabaseHandlingException();
         } finally {
-            databaseHandler.closePreparedStatement(preparedSelectBandByIdAndUserIdStatement);
+            databaseHandler.closePreparedStatement(preparedSelectBandOwnersStatement);
         }
     }
 
     /**
-     * Clear the collection.
+     * Reads current state of the given bands.
+     * In write-behind mode changes not written yet are applied to the read bands.
+     * @param bandIds Ids of bands.
+     * @return Bands by id, bands which aren't in the database are absent.
      * @throws DatabaseHandlingException When there's exception inside.
      */
-    public void clearCollection() throws  DatabaseHandlingException{
-        Collection<MusicBand> bandList = getCollection().values();
-        for (MusicBand band : bandList) {
-            deleteBandById(band.getId());
+    public Map<Integer, MusicBand> getBandsByIds(Collection<Integer> bandIds) throws DatabaseHandlingException {
+        if (writeBehindQueue == null) return selectBandsByIds(bandIds);
+        synchronized (writeBehindQueue) {
+            Map<Integer, MusicBand> bands = selectBandsByIds(bandIds);
+            writeBehindQueue.applyPendingTo(bands, bandIds);
+            return bands;
+        }
+    }
+
+    private Map<Integer, MusicBand> selectBandsByIds(Collection<Integer> bandIds) throws DatabaseHandlingException {
+        Map<Integer, MusicBand> bands = new HashMap<>();
+        if (bandIds.isEmpty()) return bands;
+        Map<Long, User> owners = new HashMap<>();
+        PreparedStatement preparedSelectBandsStatement = null;
+        try {
+            preparedSelectBandsStatement = databaseHandler.getPreparedStatement(SELECT_BANDS_WITH_DETAILS_BY_IDS, false);
+            preparedSelectBandsStatement.setArray(1, databaseHandler.createArray("integer", bandIds.toArray()));
+            ResultSet resultSet = preparedSelectBandsStatement.executeQuery();
+            while (resultSet.next()) {
+                MusicBand band = createBand(resultSet, createOwner(resultSet, owners));
+                bands.put(band.getId(), band);
+            }
+            return bands;
+        } catch (SQLException exception) {
+            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_BANDS_WITH_DETAILS_BY_IDS!");
+            throw new DatabaseHandlingException();
+        } finally {
+            databaseHandler.closePreparedStatement(preparedSelectBandsStatement);
         }
     }
 }
\ No newline at end of file
@@ -1,8 +1,15 @@
 package server.utility;
 
+import common.exceptions.DatabaseHandlingException;
 import common.utility.OutputDeliver;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Supplier;
 /**
  * A class for handle database.
  */
@@ -30,16 +37,40 @@ public class DatabaseHandler {
     public static final String COORDINATES_TABLE_Y_COLUMN = "y";
 
     private final String JDBC_DRIVER = "org.postgresql.Driver";
+    private static final int DEFAULT_POOL_SIZE = 10;
+    private static final int MIN_IDLE_CONNECTIONS = 2;
+    private static final long BORROW_TIMEOUT = 10 * 1000;
+    private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    private static final String DEFAULT_NODE_ID = "lab7";
 
     private String url;
-    private String user;
-    private String password;
-    private Connection connection;
+    private Properties connectionProperties = new Properties();
+    private String nodeId;
+    private ConnectionPool connectionPool;
+    private final ThreadLocal<PooledConnection> currentConnection = new ThreadLocal<>();
+    private final ThreadLocal<List<Runnable>> afterCommitActions = new ThreadLocal<>();
+    private final ThreadLocal<Map<Object, CommitAction>> beforeCommitActions = new ThreadLocal<>();
 
     public DatabaseHandler(String url, String user, String password) {
+        this(url, user, password, DEFAULT_POOL_SIZE);
+    }
+
+    public DatabaseHandler(String url, String user, String password, int poolSize) {
+        this(url, user, password, poolSize, DEFAULT_NODE_ID);
+    }
+
+    /**
+     * @param nodeId Name of the server among servers sharing the database, is given to connections as application name.
+     */
+    public DatabaseHandler(String url, String user, String password, int poolSize, String nodeId) {
         this.url = url;
-        this.user = user;
-        this.password = password;
+        this.nodeId = nodeId;
+        connectionProperties.setProperty("user", user);
+        connectionProperties.setProperty("password", password);
+        connectionProperties.setProperty("ApplicationName", nodeId);
+        this.connectionPool = new ConnectionPool(url, connectionProperties, poolSize, MIN_IDLE_CONNECTIONS,
+                BORROW_TIMEOUT, IDLE_TIMEOUT, STATEMENT_CACHE_SIZE);
 
         connectToDatabase();
     }
@@ -50,7 +81,7 @@ public class DatabaseHandler {
     private void connectToDatabase() {
         try {
             Class.forName(JDBC_DRIVER);
-            connection = DriverManager.getConnection(url, user, password);
+            connectionPool.warmUp();
             OutputDeliver.println("Соединение с базой данных установлено.");
         } catch (ClassNotFoundException exception) {
             OutputDeliver.printError("Драйвер не найден!");
@@ -60,6 +91,44 @@ public class DatabaseHandler {
     }
 
     /**
+     * Takes connection of the current thread, borrowing it from the pool if needed.
+     * @return Connection of the current thread.
+     * @throws SQLException When there's no free connection.
+     */
+    private PooledConnection acquireConnection() throws SQLException {
+        PooledConnection pooledConnection = currentConnection.get();
+        if (pooledConnection == null) {
+            pooledConnection = connectionPool.borrow();
+            currentConnection.set(pooledConnection);
+        }
+        pooledConnection.hold();
+        return pooledConnection;
+    }
+
+    /**
+     * Gives connection of the current thread back to the pool when nobody uses it.
+     */
+    private void releaseConnection() {
+        PooledConnection pooledConnection = currentConnection.get();
+        if (pooledConnection == null) return;
+        if (pooledConnection.unhold()) {
+            currentConnection.remove();
+            connectionPool.release(pooledConnection);
+        }
+    }
+
+    /**
+     * @return Connection of the current thread.
+     * @throws SQLException When current thread hasn't taken a connection.
+     */
+    private Connection currentConnection() throws SQLException {
+        PooledConnection pooledConnection = currentConnection.get();
+        if (pooledConnection == null) throw new SQLException();
+        return pooledConnection.getConnection();
+    }
+
+    /**
+     * Takes prepared statement from the cache of the current connection or prepares a new one.
      * @param sqlStatement SQL statement to be prepared.
      * @param generateKeys Is keys needed to be generated.
      * @return Prepared statement.
@@ -67,26 +136,41 @@ public class DatabaseHandler {
      */
     public PreparedStatement getPreparedStatement(String sqlStatement, boolean generateKeys) throws SQLException {
         PreparedStatement preparedStatement;
+        PooledConnection pooledConnection = acquireConnection();
         try {
-            if (connection == null) throw new SQLException();
-            int autoKey = generateKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS;
-            preparedStatement = connection.prepareStatement(sqlStatement, autoKey);
+            preparedStatement = pooledConnection.prepareStatement(sqlStatement, generateKeys);
             return preparedStatement;
         } catch (SQLException exception) {
+            releaseConnection();
             throw new SQLException(exception);
         }
     }
 
     /**
-     * Close prepared statement.
+     * Creates SQL array on the connection of the current thread.
+     * @param typeName SQL type of elements.
+     * @param elements Elements of the array.
+     * @return SQL array.
+     * @throws SQLException When current thread hasn't taken a connection.
+     */
+    public Array createArray(String typeName, Object[] elements) throws SQLException {
+        return currentConnection().createArrayOf(typeName, elements);
+    }
+
+    /**
+     * Close prepared statement, cached statements are only reset.
      * @param sqlStatement SQL statement to be closed.
      */
     public void closePreparedStatement(PreparedStatement sqlStatement) {
         if (sqlStatement == null) return;
         try {
-            sqlStatement.close();
+            PooledConnection pooledConnection = currentConnection.get();
+            if (pooledConnection != null) pooledConnection.returnStatement(sqlStatement);
+            else sqlStatement.close();
         } catch (SQLException exception) {
             OutputDeliver.printError("Экзепшын выпал... ЭсКуЭль Экзепшн");
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -94,22 +178,41 @@ public class DatabaseHandler {
      * Close connection to database.
      */
     public void closeConnection() {
-        if (connection == null) return;
-        try {
-            connection.close();
-            OutputDeliver.println("Соединение с базой данных разорвано.");
-        } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при разрыве соединения с базой данных!");
-        }
+        OutputDeliver.println(connectionPool);
+        connectionPool.close();
+        OutputDeliver.println("Соединение с базой данных разорвано.");
     }
 
     /**
-     * Set commit mode of database.
+     * Opens connection which doesn't belong to the pool, e.g. for listening to notifications.
+     * @return New connection to database.
+     * @throws SQLException When database is unreachable.
+     */
+    public Connection createDedicatedConnection() throws SQLException {
+        return DriverManager.getConnection(url, connectionProperties);
+    }
+
+    /**
+     * @return Name of the server among servers sharing the database.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Set commit mode of database. Inside another transaction only joins it,
+     * so commit and rollback are left to the outermost transaction.
      */
     public void setCommitMode() {
         try {
-            if (connection == null) throw new SQLException();
-            connection.setAutoCommit(false);
+            PooledConnection pooledConnection = acquireConnection();
+            try {
+                if (pooledConnection.beginTransaction()) pooledConnection.getConnection().setAutoCommit(false);
+            } catch (SQLException exception) {
+                pooledConnection.endTransaction();
+                releaseConnection();
+                throw exception;
+            }
         } catch (SQLException exception) {
             OutputDeliver.printError("Произошла ошибка при установлении режима транзакции базы данных!");
         }
@@ -120,22 +223,56 @@ public class DatabaseHandler {
      */
     public void setNormalMode() {
         try {
-            if (connection == null) throw new SQLException();
-            connection.setAutoCommit(true);
+            PooledConnection pooledConnection = currentConnection.get();
+            if (pooledConnection == null || !pooledConnection.isInTransaction()) throw new SQLException();
+            try {
+                if (pooledConnection.endTransaction()) {
+                    beforeCommitActions.remove();
+                    afterCommitActions.remove();
+                    pooledConnection.getConnection().setAutoCommit(true);
+                }
+            } finally {
+                releaseConnection();
+            }
         } catch (SQLException exception) {
             OutputDeliver.printError("Произошла ошибка при установлении нормального режима базы данных!");
         }
     }
 
     /**
-     * Commit database status.
+     * Commit database status. Nested transaction only joins the outer one.
+     * @return Is transaction committed, false means that it must be rolled back.
      */
-    public void commit() {
+    public boolean commit() {
         try {
-            if (connection == null) throw new SQLException();
-            connection.commit();
+            PooledConnection pooledConnection = currentConnection.get();
+            if (pooledConnection != null && pooledConnection.isNestedTransaction()) return true;
+            if (pooledConnection != null && pooledConnection.isRollbackOnly()) {
+                rollback();
+                OutputDeliver.printError("Транзакция была отменена вложенной операцией!");
+                return false;
+            }
+            Map<Object, CommitAction> preparations = beforeCommitActions.get();
+            beforeCommitActions.remove();
+            if (preparations != null) {
+                for (CommitAction preparation : preparations.values()) {
+                    try {
+                        preparation.run();
+                    } catch (DatabaseHandlingException exception) {
+                        rollback();
+                        OutputDeliver.printError("Транзакция отменена, ее изменения не удалось сохранить!");
+                        return false;
+                    }
+                }
+            }
+            currentConnection().commit();
+            List<Runnable> actions = afterCommitActions.get();
+            afterCommitActions.remove();
+            if (actions != null) actions.forEach(Runnable::run);
+            return true;
         } catch (SQLException exception) {
             OutputDeliver.printError("Произошла ошибка при подтверждении нового состояния базы данных!");
+            return false;
         }
     }
 
@@ -144,22 +281,80 @@ public class DatabaseHandler {
      */
     public void rollback() {
         try {
-            if (connection == null) throw new SQLException();
-            connection.rollback();
+            PooledConnection pooledConnection = currentConnection.get();
+            if (pooledConnection != null && pooledConnection.isNestedTransaction()) {
+                pooledConnection.setRollbackOnly();
+                return;
+            }
+            beforeCommitActions.remove();
+            afterCommitActions.remove();
+            currentConnection().rollback();
         } catch (SQLException exception) {
             OutputDeliver.printError("Произошла ошибка при возврате исходного состояния базы данных!");
         }
     }
 
+    /**
+     * @return Has current thread started a transaction.
+     */
+    public boolean isInTransaction() {
+        PooledConnection pooledConnection = currentConnection.get();
+        return pooledConnection != null && pooledConnection.isInTransaction();
+    }
+
+    /**
+     * Postpones action until the current transaction is committed, it's forgotten on rollback.
+     * @param action Action to be run after commit.
+     */
+    public void afterCommit(Runnable action) {
+        List<Runnable> actions = afterCommitActions.get();
+        if (actions == null) {
+            actions = new ArrayList<>();
+            afterCommitActions.set(actions);
+        }
+        actions.add(action);
+    }
+
+    /**
+     * Finds action which is run right before the current transaction is committed, one per owner.
+     * Transaction is rolled back instead of commit when the action fails, the action is forgotten on rollback.
+     * @param owner Owner of the action.
+     * @param factory Creates the action when the transaction has none of the owner yet.
+     * @return Action of the owner.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends CommitAction> T beforeCommit(Object owner, Supplier<T> factory) {
+        Map<Object, CommitAction> actions = beforeCommitActions.get();
+        if (actions == null) {
+            actions = new LinkedHashMap<>();
+            beforeCommitActions.set(actions);
+        }
+        return (T) actions.computeIfAbsent(owner, key -> factory.get());
+    }
+
+    /**
+     * @return Is current transaction going to be rolled back because of nested one.
+     */
+    public boolean isRollbackOnly() {
+        PooledConnection pooledConnection = currentConnection.get();
+        return pooledConnection != null && pooledConnection.isRollbackOnly();
+    }
+
     /**
      * Set save point of database.
      */
     public void setSavepoint() {
         try {
-            if (connection == null) throw new SQLException();
-            connection.setSavepoint();
+            currentConnection().setSavepoint();
         } catch (SQLException exception) {
             OutputDeliver.printError("Ошибка сохранения базы данных!");
         }
     }
+
+    /**
+     * Part of commit which may fail, see beforeCommit().
+     */
+    public interface CommitAction {
+        void run() throws DatabaseHandlingException;
+    }
 }
@@ -7,24 +7,32 @@ import common.utility.OutputDeliver;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A manager of user database.
+ * A manager of user database. Users are cached for a limited time, so the database is hit only on cold entries.
  */
 public class DatabaseUserManager {
+    private static final int MAX_CACHED_USERS = 10000;
+    private static final long CACHED_USER_LIFETIME = 5 * 60 * 1000;
+
     // USER_TABLE
     private final String SELECT_USER_BY_ID = "SELECT * FROM " + DatabaseHandler.USER_TABLE +
             " WHERE " + DatabaseHandler.USER_TABLE_ID_COLUMN + " = ?";
     private final String SELECT_USER_BY_USERNAME = "SELECT * FROM " + DatabaseHandler.USER_TABLE +
             " WHERE " + DatabaseHandler.USER_TABLE_NAME_COLUMN + " = ?";
-    private final String SELECT_USER_BY_USERNAME_AND_PASSWORD = SELECT_USER_BY_USERNAME + " AND " +
-            DatabaseHandler.USER_TABLE_PASSWORD_COLUMN + " = ?";
     private final String INSERT_USER = "INSERT INTO " +
             DatabaseHandler.USER_TABLE + " (" +
             DatabaseHandler.USER_TABLE_NAME_COLUMN + ", " +
-            DatabaseHandler.USER_TABLE_PASSWORD_COLUMN + ") VALUES (?, ?)";
+            DatabaseHandler.USER_TABLE_PASSWORD_COLUMN + ") SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM " +
+            DatabaseHandler.USER_TABLE + " WHERE " + DatabaseHandler.USER_TABLE_NAME_COLUMN + " = ?) RETURNING " +
+            DatabaseHandler.USER_TABLE_ID_COLUMN;
 
     private DatabaseHandler databaseHandler;
+    private final Map<String, CachedUser> usersByUsername = new ConcurrentHashMap<>();
+    private final Map<Long, CachedUser> usersById = new ConcurrentHashMap<>();
 
     public DatabaseUserManager(DatabaseHandler databaseHandler) {
         this.databaseHandler = databaseHandler;
@@ -36,7 +44,8 @@ public class DatabaseUserManager {
      * @throws SQLException When there's exception inside.
      */
     public User getUserById(long userId) throws SQLException {
-        User user;
+        CachedUser cachedUser = usersById.get(userId);
+        if (cachedUser != null && !cachedUser.isExpired()) return cachedUser.toUser();
         PreparedStatement preparedSelectUserByIdStatement = null;
         try {
             preparedSelectUserByIdStatement =
@@ -44,7 +53,8 @@ public class DatabaseUserManager {
             preparedSelectUserByIdStatement.setLong(1, userId);
             ResultSet resultSet = preparedSelectUserByIdStatement.executeQuery();
             if (resultSet.next()) {
-                user = new User(
+                cachedUser = cacheUser(
+                        userId,
                         resultSet.getString(DatabaseHandler.USER_TABLE_NAME_COLUMN),
                         resultSet.getString(DatabaseHandler.USER_TABLE_PASSWORD_COLUMN)
                 );
@@ -55,7 +65,7 @@ public class DatabaseUserManager {
         } finally {
             databaseHandler.closePreparedStatement(preparedSelectUserByIdStatement);
         }
-        return user;
+        return cachedUser.toUser();
     }
 
     /**
@@ -66,20 +76,8 @@ public class DatabaseUserManager {
      * @throws DatabaseHandlingException When there's exception inside.
      */
     public boolean checkUserByUsernameAndPassword(User user) throws DatabaseHandlingException {
-        PreparedStatement preparedSelectUserByUsernameAndPasswordStatement = null;
-        try {
-            preparedSelectUserByUsernameAndPasswordStatement =
-                    databaseHandler.getPreparedStatement(SELECT_USER_BY_USERNAME_AND_PASSWORD, false);
-            preparedSelectUserByUsernameAndPasswordStatement.setString(1, user.getUsername());
-            preparedSelectUserByUsernameAndPasswordStatement.setString(2, user.getPassword());
-            ResultSet resultSet = preparedSelectUserByUsernameAndPasswordStatement.executeQuery();
-            return resultSet.next();
-        } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_USER_BY_USERNAME_AND_PASSWORD!");
-            throw new DatabaseHandlingException();
-        } finally {
-            databaseHandler.closePreparedStatement(preparedSelectUserByUsernameAndPasswordStatement);
-        }
+        CachedUser cachedUser = getUserByUsername(user.getUsername());
+        return cachedUser != null && cachedUser.password.equals(user.getPassword());
     }
 
     /**
@@ -90,40 +88,28 @@ public class DatabaseUserManager {
      * @throws DatabaseHandlingException When there's exception inside.
      */
     public long getUserIdByUsername(User user) throws DatabaseHandlingException {
-        long userId;
-        PreparedStatement preparedSelectUserByUsernameStatement = null;
-        try {
-            preparedSelectUserByUsernameStatement =
-                    databaseHandler.getPreparedStatement(SELECT_USER_BY_USERNAME, false);
-            preparedSelectUserByUsernameStatement.setString(1, user.getUsername());
-            ResultSet resultSet = preparedSelectUserByUsernameStatement.executeQuery();
-            if (resultSet.next()) {
-                userId = resultSet.getLong(DatabaseHandler.USER_TABLE_ID_COLUMN);
-            } else userId = -1;
-            return userId;
-        } catch (SQLException exception) {
-            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_USER_BY_USERNAME!");
-            throw new DatabaseHandlingException();
-        } finally {
-            databaseHandler.closePreparedStatement(preparedSelectUserByUsernameStatement);
-        }
+        CachedUser cachedUser = getUserByUsername(user.getUsername());
+        return cachedUser == null ? -1 : cachedUser.id;
     }
 
     /**
-     * Insert user.
+     * Insert user, if there's no user with the same name.
      * @param user User.
      * @return Status of insert.
      * @throws DatabaseHandlingException When there's exception inside.
      */
     public boolean insertUser(User user) throws DatabaseHandlingException {
+        invalidateUser(user.getUsername());
         PreparedStatement preparedInsertUserStatement = null;
         try {
-            if (getUserIdByUsername(user) != -1) return false;
             preparedInsertUserStatement =
                     databaseHandler.getPreparedStatement(INSERT_USER, false);
             preparedInsertUserStatement.setString(1, user.getUsername());
             preparedInsertUserStatement.setString(2, user.getPassword());
-            if (preparedInsertUserStatement.executeUpdate() == 0) throw new SQLException();
+            preparedInsertUserStatement.setString(3, user.getUsername());
+            ResultSet resultSet = preparedInsertUserStatement.executeQuery();
+            if (!resultSet.next()) return false;
+            cacheUser(resultSet.getLong(1), user.getUsername(), user.getPassword());
             return true;
         } catch (SQLException exception) {
             OutputDeliver.printError("Произошла ошибка при выполнении запроса INSERT_USER!");
@@ -132,4 +118,89 @@ public class DatabaseUserManager {
             databaseHandler.closePreparedStatement(preparedInsertUserStatement);
         }
     }
+
+    /**
+     * Removes user from the cache, so that it's read from the database next time.
+     * @param username Name of the user.
+     */
+    public void invalidateUser(String username) {
+        CachedUser cachedUser = usersByUsername.remove(username);
+        if (cachedUser != null) usersById.remove(cachedUser.id, cachedUser);
+    }
+
+    /**
+     * @param username Name of the user.
+     * @return Cached user or null, if there's no such user.
+     * @throws DatabaseHandlingException When there's exception inside.
+     */
+    private CachedUser getUserByUsername(String username) throws DatabaseHandlingException {
+        CachedUser cachedUser = usersByUsername.get(username);
+        if (cachedUser != null && !cachedUser.isExpired()) return cachedUser;
+        PreparedStatement preparedSelectUserByUsernameStatement = null;
+        try {
+            preparedSelectUserByUsernameStatement =
+                    databaseHandler.getPreparedStatement(SELECT_USER_BY_USERNAME, false);
+            preparedSelectUserByUsernameStatement.setString(1, username);
+            ResultSet resultSet = preparedSelectUserByUsernameStatement.executeQuery();
+            if (!resultSet.next()) {
+                invalidateUser(username);
+                return null;
+            }
+            return cacheUser(
+                    resultSet.getLong(DatabaseHandler.USER_TABLE_ID_COLUMN),
+                    username,
+                    resultSet.getString(DatabaseHandler.USER_TABLE_PASSWORD_COLUMN)
+            );
+        } catch (SQLException exception) {
+            OutputDeliver.printError("Произошла ошибка при выполнении запроса SELECT_USER_BY_USERNAME!");
+            throw new DatabaseHandlingException();
+        } finally {
+            databaseHandler.closePreparedStatement(preparedSelectUserByUsernameStatement);
+        }
+    }
+
+    /**
+     * Puts user into the cache. When cache is full, expired users are removed, then any users.
+     */
+    private CachedUser cacheUser(long id, String username, String password) {
+        if (usersByUsername.size() >= MAX_CACHED_USERS) {
+            usersByUsername.values().removeIf(CachedUser::isExpired);
+            usersById.values().removeIf(CachedUser::isExpired);
+            Iterator<CachedUser> iterator = usersByUsername.values().iterator();
+            while (usersByUsername.size() >= MAX_CACHED_USERS && iterator.hasNext()) {
+                CachedUser evictedUser = iterator.next();
+                iterator.remove();
+                usersById.remove(evictedUser.id, evictedUser);
+            }
+        }
+        CachedUser cachedUser = new CachedUser(id, username, password);
+        CachedUser previousUser = usersByUsername.put(username, cachedUser);
+        if (previousUser != null && previousUser.id != id) usersById.remove(previousUser.id, previousUser);
+        usersById.put(id, cachedUser);
+        return cachedUser;
+    }
+
+    /**
+     * User read from the database.
+     */
+    private static class CachedUser {
+        private final long id;
+        private final String username;
+        private final String password;
+        private final long expirationTime = System.currentTimeMillis() + CACHED_USER_LIFETIME;
+
+        private CachedUser(long id, String username, String password) {
+            this.id = id;
+            this.username = username;
+            this.password = password;
+        }
+
+        private boolean isExpired() {
+            return expirationTime < System.currentTimeMillis();
+        }
+
+        private User toUser() {
+            return new User(id, username, password);
+        }
+    }
 }
\ No newline at end of file
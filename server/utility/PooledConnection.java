@@ -0,0 +1,211 @@
+package server.utility;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * A database connection owned by the connection pool.
+ * Keeps prepared statements of the connection in LRU cache, so that the same SQL is prepared only once.
+ */
+public class PooledConnection {
+    private final Connection connection;
+    private final ConnectionPool connectionPool;
+    private final LinkedHashMap<String, PreparedStatement> statementCache;
+    private final Set<PreparedStatement> statementsInUse = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile long lastUsedTime;
+    private int holdCount;
+    private int transactionDepth;
+    private boolean isRollbackOnly;
+
+    public PooledConnection(Connection connection, ConnectionPool connectionPool, int statementCacheSize) {
+        this.connection = connection;
+        this.connectionPool = connectionPool;
+        this.lastUsedTime = System.nanoTime();
+        this.statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) return false;
+                if (!statementsInUse.contains(eldest.getValue())) closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return Underlying JDBC connection.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Takes prepared statement from the cache or prepares a new one.
+     * @param sqlStatement SQL statement to be prepared.
+     * @param generateKeys Is keys needed to be generated.
+     * @return Prepared statement, which must be given back with returnStatement().
+     * @throws SQLException When statement can't be prepared.
+     */
+    public PreparedStatement prepareStatement(String sqlStatement, boolean generateKeys) throws SQLException {
+        String key = (generateKeys ? "K:" : "N:") + sqlStatement;
+        PreparedStatement preparedStatement = statementCache.get(key);
+        if (preparedStatement != null && !statementsInUse.contains(preparedStatement) && !preparedStatement.isClosed()) {
+            connectionPool.recordStatementCacheHit();
+        } else {
+            connectionPool.recordStatementCacheMiss();
+            int autoKey = generateKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS;
+            preparedStatement = connection.prepareStatement(sqlStatement, autoKey);
+            // A statement, which is used by the same thread right now, stays in the cache.
+            if (!statementCache.containsKey(key)) statementCache.put(key, preparedStatement);
+        }
+        statementsInUse.add(preparedStatement);
+        return preparedStatement;
+    }
+
+    /**
+     * Gives prepared statement back, keeping it open if it's cached.
+     * @param preparedStatement Statement taken with prepareStatement().
+     * @throws SQLException When statement can't be reset.
+     */
+    public void returnStatement(PreparedStatement preparedStatement) throws SQLException {
+        statementsInUse.remove(preparedStatement);
+        if (statementCache.containsValue(preparedStatement)) {
+            preparedStatement.clearParameters();
+        } else {
+            preparedStatement.close();
+        }
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    public void clearStatementCache() {
+        for (PreparedStatement preparedStatement : statementCache.values()) closeQuietly(preparedStatement);
+        statementCache.clear();
+        statementsInUse.clear();
+    }
+
+    /**
+     * @return Amount of cached statements.
+     */
+    public int getCachedStatementCount() {
+        return statementCache.size();
+    }
+
+    private static void closeQuietly(PreparedStatement preparedStatement) {
+        try {
+            preparedStatement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * @return Time of the last return to the pool (System.nanoTime()).
+     */
+    public long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    /**
+     * Marks connection as just used.
+     */
+    public void touch() {
+        lastUsedTime = System.nanoTime();
+    }
+
+    /**
+     * Registers one more user of the connection inside the owning thread.
+     */
+    public void hold() {
+        holdCount++;
+    }
+
+    /**
+     * Unregisters one user of the connection inside the owning thread.
+     * @return Is connection not used anymore.
+     */
+    public boolean unhold() {
+        if (holdCount > 0) holdCount--;
+        return holdCount == 0;
+    }
+
+    /**
+     * Enters a transaction, which may be nested into another one.
+     * @return Is this transaction the outermost one.
+     */
+    public boolean beginTransaction() {
+        return transactionDepth++ == 0;
+    }
+
+    /**
+     * Leaves a transaction.
+     * @return Was this transaction the outermost one.
+     */
+    public boolean endTransaction() {
+        if (transactionDepth > 0) transactionDepth--;
+        if (transactionDepth > 0) return false;
+        isRollbackOnly = false;
+        return true;
+    }
+
+    /**
+     * @return Is connection inside a transaction now.
+     */
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
+
+    /**
+     * @return Is current transaction nested into another one.
+     */
+    public boolean isNestedTransaction() {
+        return transactionDepth > 1;
+    }
+
+    /**
+     * Marks outermost transaction to be rolled back instead of commit.
+     */
+    public void setRollbackOnly() {
+        isRollbackOnly = true;
+    }
+
+    /**
+     * @return Is outermost transaction going to be rolled back.
+     */
+    public boolean isRollbackOnly() {
+        return isRollbackOnly;
+    }
+
+    /**
+     * Forgets all transactions, when connection is given back to the pool.
+     */
+    public void resetTransaction() {
+        transactionDepth = 0;
+        isRollbackOnly = false;
+    }
+
+    /**
+     * @param timeoutSeconds Time to wait for database answer.
+     * @return Is connection still usable.
+     */
+    public boolean isValid(int timeoutSeconds) {
+        try {
+            return !connection.isClosed() && connection.isValid(timeoutSeconds);
+        } catch (SQLException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes connection quietly.
+     */
+    public void close() {
+        clearStatementCache();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package server.utility;
+
+import common.interaction.Request;
+import common.interaction.Response;
+import common.interaction.ResponseCode;
+import common.utility.OutputDeliver;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Executes requests on a dedicated pool of workers with bounded queue.
+ * When the queue is full, request is answered with an error instead of waiting.
+ */
+public class RequestExecutor {
+    public static final String OVERLOAD_MESSAGE = "Сервер перегружен, повторите запрос позднее.\n";
+
+    private final CommandManager commandManager;
+    private final SessionManager sessionManager;
+    private final DatabaseUserManager databaseUserManager;
+    private final ThreadPoolExecutor workerPool;
+
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong totalExecutionNanos = new AtomicLong();
+
+    public RequestExecutor(int workers, int queueCapacity, CommandManager commandManager,
+                           SessionManager sessionManager, DatabaseUserManager databaseUserManager) {
+        this.commandManager = commandManager;
+        this.sessionManager = sessionManager;
+        this.databaseUserManager = databaseUserManager;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workerPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "request-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executes request and waits for its response.
+     * @param request Request to be executed.
+     * @return Response to the request.
+     */
+    public Response execute(Request request) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        executeAsync(request, response::complete);
+        try {
+            return response.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return new Response(ResponseCode.ERROR, "Обработка запроса прервана.\n");
+        } catch (ExecutionException exception) {
+            return new Response(ResponseCode.ERROR, "При обработке запроса произошла ошибка!\n");
+        }
+    }
+
+    /**
+     * Queues request, response is given to callback on the worker thread.
+     * @param request Request to be executed.
+     * @param callback Receiver of the response, is called on the caller thread when request is rejected.
+     */
+    public void executeAsync(Request request, Consumer<Response> callback) {
+        executeAsync(request, false, callback);
+    }
+
+    /**
+     * Queues request, response is given to callback on the worker thread.
+     * @param request Request to be executed.
+     * @param isChunked May long response be given to callback in several chunks, last of them hasn't more.
+     * @param callback Receiver of the response, is called on the caller thread when request is rejected.
+     */
+    public void executeAsync(Request request, boolean isChunked, Consumer<Response> callback) {
+        long queuedTime = System.nanoTime();
+        try {
+            workerPool.execute(() -> {
+                long startTime = System.nanoTime();
+                recordQueueTime(startTime - queuedTime);
+                Response response;
+                if (isChunked) ResponseOutputDeliver.setChunkConsumer(chunk ->
+                        callback.accept(new Response(ResponseCode.OK, chunk, true)));
+                try {
+                    response = new RequestHandler(request, commandManager, sessionManager,
+                            databaseUserManager).call();
+                } catch (RuntimeException exception) {
+                    OutputDeliver.printError("При обработке запроса произошла ошибка!");
+                    ResponseOutputDeliver.getAndClear();
+                    ResponseOutputDeliver.getAndClearSessionToken();
+                    response = new Response(ResponseCode.ERROR, "При обработке запроса произошла ошибка!\n");
+                } finally {
+                    ResponseOutputDeliver.setChunkConsumer(null);
+                }
+                totalExecutionNanos.addAndGet(System.nanoTime() - startTime);
+                executedCount.incrementAndGet();
+                callback.accept(response);
+            });
+        } catch (RejectedExecutionException exception) {
+            rejectedCount.incrementAndGet();
+            callback.accept(new Response(ResponseCode.ERROR, OVERLOAD_MESSAGE));
+        }
+    }
+
+    /**
+     * @param request Request to be checked.
+     * @return Is request only reading the collection.
+     */
+    public boolean isReadOnly(Request request) {
+        return commandManager.isReadOnly(request.getCommandName());
+    }
+
+    private void recordQueueTime(long queueNanos) {
+        totalQueueNanos.addAndGet(queueNanos);
+        maxQueueNanos.accumulateAndGet(queueNanos, Math::max);
+    }
+
+    /**
+     * Stops accepting requests and waits for queued ones.
+     */
+    public void shutdown() {
+        workerPool.shutdown();
+        try {
+            workerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        OutputDeliver.println(this);
+    }
+
+    /**
+     * @return Amount of requests waiting in the queue.
+     */
+    public int getQueueSize() {
+        return workerPool.getQueue().size();
+    }
+
+    /**
+     * @return Amount of requests rejected because of full queue.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return Average time of waiting in the queue in milliseconds.
+     */
+    public double getAverageQueueMillis() {
+        long executed = executedCount.get();
+        if (executed == 0) return 0;
+        return totalQueueNanos.get() / 1e6 / executed;
+    }
+
+    /**
+     * @return Maximal time of waiting in the queue in milliseconds.
+     */
+    public double getMaxQueueMillis() {
+        return maxQueueNanos.get() / 1e6;
+    }
+
+    /**
+     * @return Average time of request execution in milliseconds.
+     */
+    public double getAverageExecutionMillis() {
+        long executed = executedCount.get();
+        if (executed == 0) return 0;
+        return totalExecutionNanos.get() / 1e6 / executed;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestExecutor[workers=" + workerPool.getMaximumPoolSize() +
+                ", active=" + workerPool.getActiveCount() +
+                ", queued=" + getQueueSize() +
+                ", executed=" + executedCount.get() +
+                ", rejected=" + getRejectedCount() +
+                ", avgQueueMs=" + String.format("%.3f", getAverageQueueMillis()) +
+                ", maxQueueMs=" + String.format("%.3f", getMaxQueueMillis()) +
+                ", avgExecutionMs=" + String.format("%.3f", getAverageExecutionMillis()) + "]";
+    }
+}
@@ -1,63 +1,75 @@
 package server.utility;
 
+import common.exceptions.DatabaseHandlingException;
 import common.interaction.Request;
 import common.interaction.Response;
 import common.interaction.ResponseCode;
+import common.interaction.ScriptBatch;
 import common.interaction.User;
-import server.commands.Command;
 
-import java.util.List;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Callable;
 
 /**
  * Handles requests.
  */
-public class RequestHandler extends RecursiveTask<Response> {
+public class RequestHandler implements Callable<Response> {
     private CommandManager commandManager;
+    private SessionManager sessionManager;
+    private DatabaseUserManager databaseUserManager;
     private Request request;
 
-    public RequestHandler(Request request, CommandManager commandManager) {
+    public RequestHandler(Request request, CommandManager commandManager, SessionManager sessionManager,
+                          DatabaseUserManager databaseUserManager) {
         this.request = request;
         this.commandManager = commandManager;
+        this.sessionManager = sessionManager;
+        this.databaseUserManager = databaseUserManager;
     }
 
+    /**
+     * Executes request as the user of its session or, if there's no session, as the user with given credentials.
+     * Wrong credentials are accepted only by commands, which check them themselves.
+     * Session is closed by the 'exit' command.
+     * @return Response to the request.
+     */
     @Override
-    protected Response compute() {
-        User hashedUser = new User(
-                request.getUser().getUsername(),
-                PasswordHash.hashPassword(request.getUser().getPassword())
-        );
-        ResponseCode responseCode = executeCommand(request.getCommandName(), request.getCommandStringArgument(),
-                request.getCommandObjectArgument(), hashedUser);
-        return new Response(responseCode, ResponseOutputDeliver.getAndClear());
+    public Response call() {
+        User user;
+        if (request.getSessionToken() != null) {
+            SessionManager.Session session = sessionManager.getSession(request.getSessionToken());
+            if (session == null) return new Response(ResponseCode.SESSION_EXPIRED,
+                    "Сессия истекла, необходимо авторизоваться заново.\n");
+            user = session.getUser();
+        } else if (request.getUser() != null) {
+            user = new User(
+                    request.getUser().getUsername(),
+                    PasswordHash.hashPassword(request.getUser().getPassword())
+            );
+            try {
+                if (databaseUserManager.checkUserByUsernameAndPassword(user))
+                    user = new User(databaseUserManager.getUserIdByUsername(user), user.getUsername(), user.getPassword());
+                else if (!isAuthenticationCommand(request.getCommandName()))
+                    return new Response(ResponseCode.ERROR, "Неверное имя пользователя или пароль!\n");
+            } catch (DatabaseHandlingException exception) {
+                return new Response(ResponseCode.ERROR, "Произошла ошибка при обращении к базе данных!\n");
+            }
+        } else return new Response(ResponseCode.ERROR, "Пользователь не авторизован!\n");
+        boolean isSuccessful = commandManager.executeCommand(request.getCommandName(),
+                request.getCommandStringArgument(), request.getCommandObjectArgument(), user);
+        if (isSuccessful && request.getCommandName().equals("exit") && request.getSessionToken() != null)
+            sessionManager.removeSession(request.getSessionToken());
+        ResponseCode responseCode = !isSuccessful && request.getCommandObjectArgument() instanceof ScriptBatch ?
+                ResponseCode.ERROR : ResponseCode.OK;
+        Response response = new Response(responseCode, ResponseOutputDeliver.getAndClear());
+        response.setSessionToken(ResponseOutputDeliver.getAndClearSessionToken());
+        return response;
     }
 
     /**
-     * Executes a command from a request.
-     * @param command               Name of command.
-     * @param commandStringArgument String argument for command.
-     * @param commandObjectArgument Object argument for command.
-     * @return Command execute status.
+     * @param commandName Name of the command.
+     * @return Does the command authenticate the user itself.
      */
-    private ResponseCode executeCommand(String command, String commandStringArgument,
-                                        Object commandObjectArgument, User user) {
-        List<Command> commandList = commandManager.getCommands();
-
-        if (command.equals("execute_script")) {
-            if (!commandManager.executeScript(commandStringArgument, commandObjectArgument, user)) return ResponseCode.OK;
-        }
-        if (command.equals("help")) {
-            commandManager.getAllCommands(commandStringArgument, commandObjectArgument, user);
-            return ResponseCode.OK;
-        }
-        for (int i = 0; i < commandList.size(); i++) {
-            String[] nowCommands = commandList.get(i).getName().split(" ");
-            String now = nowCommands[0];
-            if (now.equals(command)) {
-                commandList.get(i).execute(commandStringArgument, commandObjectArgument, user);
-                return ResponseCode.OK;
-            }
-        }
-        return ResponseCode.OK;
+    private boolean isAuthenticationCommand(String commandName) {
+        return commandName.equals("login") || commandName.equals("register");
     }
 }
\ No newline at end of file
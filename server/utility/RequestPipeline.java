@@ -0,0 +1,85 @@
+package server.utility;
+
+import common.interaction.Request;
+import common.interaction.Response;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Requests of one connection which are sent without waiting for responses.
+ * Read-only requests run together and may finish out of order, other request waits
+ * for all earlier ones and blocks all later ones. Response and its chunks get correlation id of the request.
+ */
+public class RequestPipeline {
+    private final RequestExecutor requestExecutor;
+    private final Consumer<Response> responseConsumer;
+    private final boolean isChunked;
+    private final ArrayDeque<Request> waitingRequests = new ArrayDeque<>();
+    private int runningCount;
+    private boolean isWriteRunning;
+
+    /**
+     * @param isChunked Does the client accept responses in chunks.
+     */
+    public RequestPipeline(RequestExecutor requestExecutor, boolean isChunked, Consumer<Response> responseConsumer) {
+        this.requestExecutor = requestExecutor;
+        this.isChunked = isChunked;
+        this.responseConsumer = responseConsumer;
+    }
+
+    /**
+     * Queues request, it's started as soon as earlier requests allow.
+     * @param request Request to be executed.
+     */
+    public synchronized void submit(Request request) {
+        waitingRequests.add(request);
+        startWaiting();
+    }
+
+    /**
+     * @return Amount of requests without response.
+     */
+    public synchronized int size() {
+        return runningCount + waitingRequests.size();
+    }
+
+    /**
+     * Waits until amount of requests without response is less than limit.
+     * @param limit Maximal amount of requests without response.
+     * @throws InterruptedException When thread is interrupted.
+     */
+    public synchronized void awaitCapacity(int limit) throws InterruptedException {
+        while (size() >= limit) wait();
+    }
+
+    private void startWaiting() {
+        while (!waitingRequests.isEmpty()) {
+            Request request = waitingRequests.peek();
+            boolean isReadOnly = requestExecutor.isReadOnly(request);
+            if (isWriteRunning || (!isReadOnly && runningCount > 0)) return;
+            waitingRequests.poll();
+            runningCount++;
+            if (!isReadOnly) isWriteRunning = true;
+            requestExecutor.executeAsync(request, isChunked, response -> {
+                if (response.hasMore()) {
+                    response.setCorrelationId(request.getCorrelationId());
+                    responseConsumer.accept(response);
+                } else complete(request, isReadOnly, response);
+            });
+        }
+    }
+
+    private void complete(Request request, boolean isReadOnly, Response response) {
+        synchronized (this) {
+            runningCount--;
+            if (!isReadOnly) isWriteRunning = false;
+            notifyAll();
+        }
+        response.setCorrelationId(request.getCorrelationId());
+        responseConsumer.accept(response);
+        synchronized (this) {
+            startWaiting();
+        }
+    }
+}
@@ -1,24 +1,64 @@
 package server.utility;
 
+import common.model.MusicBand;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
 /**
  * A class for generating responses to a client.
+ * Every thread writes into its own buffer, buffers are reused between requests.
+ * Long output may be sent to the client in chunks, if the client supports it.
  */
 public class ResponseOutputDeliver {
-    private static StringBuilder stringBuilder = new StringBuilder();
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private static final ArrayBlockingQueue<StringBuilder> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+    private static final ThreadLocal<StringBuilder> currentBuffer = new ThreadLocal<>();
+    private static final ThreadLocal<Consumer<String>> currentChunkConsumer = new ThreadLocal<>();
+    private static final ThreadLocal<String> currentSessionToken = new ThreadLocal<>();
+
+    /**
+     * Takes the buffer of the current request, borrowing it from the pool if needed.
+     * @return Buffer of the current request.
+     */
+    private static StringBuilder buffer() {
+        StringBuilder stringBuilder = currentBuffer.get();
+        if (stringBuilder == null) {
+            stringBuilder = bufferPool.poll();
+            if (stringBuilder == null) stringBuilder = new StringBuilder(INITIAL_CAPACITY);
+            currentBuffer.set(stringBuilder);
+        }
+        return stringBuilder;
+    }
+
+    /**
+     * Gives the buffer of the current request back to the pool.
+     */
+    private static void releaseBuffer() {
+        StringBuilder stringBuilder = currentBuffer.get();
+        if (stringBuilder == null) return;
+        currentBuffer.remove();
+        stringBuilder.setLength(0);
+        if (stringBuilder.capacity() <= MAX_RETAINED_CAPACITY) bufferPool.offer(stringBuilder);
+    }
 
     /**
      * Append object to out to the end of string.
      * @param toOut Object to Out.
      */
     public static void append(Object toOut) {
-        stringBuilder.append(toOut);
+        buffer().append(toOut);
     }
 
     /**
      * Append line break to the end of string.
      */
     public static void appendLn() {
-        stringBuilder.append("\n");
+        buffer().append('\n');
     }
 
     /**
@@ -26,7 +66,15 @@ public class ResponseOutputDeliver {
      * @param toOut Object to Out.
      */
     public static void appendLn(Object toOut) {
-        stringBuilder.append(toOut + "\n");
+        buffer().append(toOut).append('\n');
+    }
+
+    /**
+     * Append band and line break to the end of string, band is written directly into the buffer.
+     * @param band Band to Out.
+     */
+    public static void appendLn(MusicBand band) {
+        band.appendTo(buffer()).append('\n');
     }
 
     /**
@@ -34,7 +82,7 @@ public class ResponseOutputDeliver {
      * @param toOut Error description.
      */
     public static void appendError(Object toOut) {
-        stringBuilder.append("error: " + toOut + "\n");
+        buffer().append("error: ").append(toOut).append('\n');
     }
 
     /**
@@ -43,7 +91,42 @@ public class ResponseOutputDeliver {
      * @param element2 Second element for the table.
      */
     public static void appendable(Object element1, Object element2) {
-        stringBuilder.append(String.format("%-37s%-1s%n", element1, element2));
+        buffer().append(String.format("%-37s%-1s%n", element1, element2));
+    }
+
+    /**
+     * @param sessionToken Token of the session opened by the current request.
+     */
+    public static void setSessionToken(String sessionToken) {
+        currentSessionToken.set(sessionToken);
+    }
+
+    /**
+     * @return Token of the session opened by the current request or null.
+     */
+    public static String getAndClearSessionToken() {
+        String sessionToken = currentSessionToken.get();
+        currentSessionToken.remove();
+        return sessionToken;
+    }
+
+    /**
+     * @param chunkConsumer Receiver of chunks of the current response or null, if response isn't chunked.
+     */
+    public static void setChunkConsumer(Consumer<String> chunkConsumer) {
+        if (chunkConsumer == null) currentChunkConsumer.remove();
+        else currentChunkConsumer.set(chunkConsumer);
+    }
+
+    /**
+     * Sends constructed part of the response, if it's long enough and response may be chunked.
+     */
+    public static void flushChunk() {
+        Consumer<String> chunkConsumer = currentChunkConsumer.get();
+        StringBuilder stringBuilder = currentBuffer.get();
+        if (chunkConsumer == null || stringBuilder == null || stringBuilder.length() < CHUNK_SIZE) return;
+        chunkConsumer.accept(stringBuilder.toString());
+        stringBuilder.setLength(0);
     }
 
     /**
@@ -51,7 +134,8 @@ public class ResponseOutputDeliver {
      * @return Ready string.
      */
     public static String getString() {
-        return stringBuilder.toString();
+        StringBuilder stringBuilder = currentBuffer.get();
+        return stringBuilder == null ? "" : stringBuilder.toString();
     }
 
     /**
@@ -59,8 +143,8 @@ public class ResponseOutputDeliver {
      * @return Ready string.
      */
     public static String getAndClear() {
-        String toReturn = stringBuilder.toString();
-        stringBuilder.delete(0, stringBuilder.length());
+        String toReturn = getString();
+        releaseBuffer();
         return toReturn;
     }
 
@@ -68,6 +152,6 @@ public class ResponseOutputDeliver {
      * Cleans the buffer.
      */
     public static void clear() {
-        stringBuilder.delete(0, stringBuilder.length());
+        releaseBuffer();
     }
 }
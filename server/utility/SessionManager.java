@@ -0,0 +1,108 @@
+package server.utility;
+
+import common.interaction.User;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions of logged in users. Token of the session replaces credentials in requests.
+ */
+public class SessionManager {
+    private static final int TOKEN_BYTES = 32;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long sessionLifetimeMillis;
+
+    /**
+     * @param sessionLifetimeMillis Time since the last request after which session expires.
+     */
+    public SessionManager(long sessionLifetimeMillis) {
+        this.sessionLifetimeMillis = sessionLifetimeMillis;
+    }
+
+    /**
+     * Opens session of the authenticated user.
+     * @param userId Id of the user in the database.
+     * @param user User with hashed password.
+     * @return Token of the session.
+     */
+    public String createSession(long userId, User user) {
+        long now = System.currentTimeMillis();
+        byte[] tokenBytes = new byte[TOKEN_BYTES];
+        random.nextBytes(tokenBytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(tokenBytes);
+        sessions.put(token, new Session(userId, new User(userId, user.getUsername(), user.getPassword()),
+                now + sessionLifetimeMillis));
+        return token;
+    }
+
+    /**
+     * Finds session and prolongs it.
+     * @param token Token of the session.
+     * @return Session or null, if it's unknown or expired.
+     */
+    public Session getSession(String token) {
+        Session session = sessions.get(token);
+        if (session == null) return null;
+        long now = System.currentTimeMillis();
+        if (session.isExpired(now)) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.expirationTime = now + sessionLifetimeMillis;
+        return session;
+    }
+
+    /**
+     * Removes expired sessions, which are never requested again. Called periodically.
+     */
+    public void removeExpiredSessions() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.isExpired(now));
+    }
+
+    /**
+     * Closes session of the client which exits.
+     * @param token Token of the session to be closed.
+     */
+    public void removeSession(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Session of one user.
+     */
+    public static class Session {
+        private final long userId;
+        private final User user;
+        private volatile long expirationTime;
+
+        private Session(long userId, User user, long expirationTime) {
+            this.userId = userId;
+            this.user = user;
+            this.expirationTime = expirationTime;
+        }
+
+        /**
+         * @return Id of the user in the database.
+         */
+        public long getUserId() {
+            return userId;
+        }
+
+        /**
+         * @return User with id and hashed password.
+         */
+        public User getUser() {
+            return user;
+        }
+
+        private boolean isExpired(long now) {
+            return expirationTime < now;
+        }
+    }
+}
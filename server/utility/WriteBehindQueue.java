@@ -0,0 +1,516 @@
+package server.utility;
+
+import common.exceptions.DatabaseHandlingException;
+import common.exceptions.ManualDatabaseEditException;
+import common.model.MusicBand;
+import common.utility.OutputDeliver;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Changes of the collection which are acknowledged after an append to the local journal
+ * and written to the database later in batches. Journal is replayed after restart.
+ */
+public class WriteBehindQueue implements Runnable {
+    private static final byte UPDATE = 1;
+    private static final byte DELETE = 2;
+    private static final byte CHECKPOINT = 3;
+    private static final byte INSERT = 4;
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+    private static final long APPEND_TIMEOUT = 10 * 1000;
+    private static final long MIN_COMPACTION_SIZE = 16 * 1024 * 1024;
+
+    private final Path journalPath;
+    private final int maxBatchSize;
+    private final int maxPendingSize;
+    private final long flushPeriodMillis;
+    private DatabaseHandler databaseHandler;
+    private DatabaseCollectionManager databaseCollectionManager;
+    private CollectionManager collectionManager;
+    private FileChannel journal;
+    private final ArrayDeque<Mutation> pendingMutations = new ArrayDeque<>();
+    private long lastSequence;
+    private long compactedSize;
+    private int failedAttempts;
+    private Thread flusher;
+    private volatile boolean isRunning;
+
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    /**
+     * @param journalPath File of the journal.
+     * @param maxBatchSize Maximal amount of changes written in one transaction, flush starts when it's reached.
+     * @param maxPendingSize Maximal amount of changes not written yet, new changes wait when it's reached.
+     * @param flushPeriodMillis Maximal time between flushes.
+     */
+    public WriteBehindQueue(DatabaseHandler databaseHandler, DatabaseCollectionManager databaseCollectionManager,
+                            Path journalPath, int maxBatchSize, int maxPendingSize, long flushPeriodMillis) {
+        this.databaseHandler = databaseHandler;
+        this.databaseCollectionManager = databaseCollectionManager;
+        this.journalPath = journalPath;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPendingSize = maxPendingSize;
+        this.flushPeriodMillis = flushPeriodMillis;
+    }
+
+    /**
+     * Opens the journal and reads changes which weren't written to the database before restart.
+     * @throws IOException When journal can't be opened.
+     */
+    public synchronized void open() throws IOException {
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+        long lastCheckpoint = 0;
+        int validLength = 0;
+        try {
+            while (content.hasRemaining()) {
+                byte type = content.get();
+                long sequence = content.getLong();
+                if (type == INSERT || type == UPDATE) {
+                    byte[] bandBytes = new byte[content.getInt()];
+                    content.get(bandBytes);
+                    pendingMutations.add(new Mutation(sequence, type, readBand(bandBytes)));
+                } else if (type == DELETE) {
+                    int bandId = content.getInt();
+                    pendingMutations.add(new Mutation(sequence, bandId, content.getLong()));
+                } else if (type == CHECKPOINT) {
+                    lastCheckpoint = sequence;
+                } else break;
+                lastSequence = Math.max(lastSequence, sequence);
+                validLength = content.position();
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException | IOException | ClassNotFoundException exception) {
+            OutputDeliver.printError("Последняя запись журнала отложенной записи повреждена и будет отброшена.");
+        }
+        final long flushedSequence = lastCheckpoint;
+        pendingMutations.removeIf(mutation -> mutation.sequence <= flushedSequence);
+        long now = System.currentTimeMillis();
+        for (Mutation mutation : pendingMutations) mutation.queuedTime = now;
+        journal.truncate(validLength);
+        journal.position(validLength);
+        compactedSize = validLength;
+        if (!pendingMutations.isEmpty())
+            OutputDeliver.println("Из журнала восстановлено изменений: " + pendingMutations.size() + ".");
+    }
+
+    /**
+     * Starts the background flusher.
+     * @param collectionManager Collection which is reloaded when the database rejects changes.
+     */
+    public void start(CollectionManager collectionManager) {
+        this.collectionManager = collectionManager;
+        isRunning = true;
+        flusher = new Thread(this, "write-behind-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues new band, it's rejected when written if the key is taken in the database.
+     * @param band Band as it must be stored.
+     * @throws DatabaseHandlingException When journal can't be written.
+     */
+    public void insert(MusicBand band) throws DatabaseHandlingException {
+        add(Collections.singletonList(new Mutation(0, INSERT, band)));
+    }
+
+    /**
+     * Queues changed band.
+     * @param band Band as it must be stored.
+     * @throws DatabaseHandlingException When journal can't be written.
+     */
+    public void update(MusicBand band) throws DatabaseHandlingException {
+        add(Collections.singletonList(new Mutation(0, UPDATE, band)));
+    }
+
+    /**
+     * Queues removal of bands.
+     * @param bandIds Ids of bands.
+     * @param ownerId Id of the owner of bands.
+     * @throws DatabaseHandlingException When journal can't be written.
+     */
+    public void delete(Collection<Integer> bandIds, long ownerId) throws DatabaseHandlingException {
+        List<Mutation> mutations = new ArrayList<>(bandIds.size());
+        for (Integer bandId : bandIds) mutations.add(new Mutation(0, bandId, ownerId));
+        add(mutations);
+    }
+
+    /**
+     * Inside a transaction changes are collected and appended together right before it's committed,
+     * transaction is rolled back when they can't be appended.
+     */
+    private void add(List<Mutation> mutations) throws DatabaseHandlingException {
+        if (!databaseHandler.isInTransaction()) {
+            append(mutations);
+            return;
+        }
+        databaseHandler.beforeCommit(this, TransactionAppend::new).mutations.addAll(mutations);
+    }
+
+    private synchronized void append(List<Mutation> mutations) throws DatabaseHandlingException {
+        long journalSize = -1;
+        try {
+            long deadline = System.currentTimeMillis() + APPEND_TIMEOUT;
+            while (pendingMutations.size() >= maxPendingSize && isRunning) {
+                long timeout = deadline - System.currentTimeMillis();
+                if (timeout <= 0) {
+                    OutputDeliver.printError("Очередь отложенной записи переполнена, изменение отклонено!");
+                    throw new DatabaseHandlingException();
+                }
+                wait(timeout);
+            }
+            journalSize = journal.position();
+            ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+            DataOutputStream recordOutput = new DataOutputStream(recordStream);
+            long sequence = lastSequence;
+            for (Mutation mutation : mutations) {
+                mutation.sequence = ++sequence;
+                writeRecord(recordOutput, mutation);
+            }
+            writeToJournal(recordStream.toByteArray());
+            lastSequence = sequence;
+            long now = System.currentTimeMillis();
+            for (Mutation mutation : mutations) {
+                mutation.queuedTime = now;
+                pendingMutations.add(mutation);
+            }
+            if (pendingMutations.size() >= maxBatchSize) notifyAll();
+        } catch (IOException exception) {
+            OutputDeliver.printError("Произошла ошибка при записи в журнал отложенной записи!");
+            truncateJournal(journalSize);
+            throw new DatabaseHandlingException();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseHandlingException();
+        }
+    }
+
+    /**
+     * Applies changes not written yet to bands read from the database. The read must be done under the monitor
+     * of the queue: written changes leave the queue under it, so they are either read or still pending.
+     * @param bands Bands by id, as stored in the database.
+     * @param bandIds Ids of read bands or null if all bands are read.
+     */
+    public synchronized void applyPendingTo(Map<Integer, MusicBand> bands, Collection<Integer> bandIds) {
+        for (Mutation mutation : pendingMutations) {
+            if (bandIds != null && !bandIds.contains(mutation.bandId)) continue;
+            if (mutation.band != null) bands.put(mutation.bandId, mutation.band);
+            else bands.remove(mutation.bandId);
+        }
+    }
+
+    /**
+     * Applies changes not written yet to owners read from the database, the same way as applyPendingTo().
+     * @param bandOwners Owner id by band id, as stored in the database.
+     */
+    public synchronized void applyPendingOwnersTo(Map<Integer, Long> bandOwners) {
+        for (Mutation mutation : pendingMutations) {
+            if (mutation.band != null) bandOwners.put(mutation.bandId, mutation.ownerId);
+            else bandOwners.remove(mutation.bandId);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            synchronized (this) {
+                try {
+                    if (pendingMutations.size() < maxBatchSize) wait(flushPeriodMillis);
+                } catch (InterruptedException exception) {
+                    break;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Stops the flusher and writes all changes which are left.
+     */
+    public void shutdown() {
+        isRunning = false;
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        int pendingSize;
+        do {
+            pendingSize = getPendingCount();
+            flush();
+        } while (getPendingCount() > 0 && getPendingCount() < pendingSize);
+        OutputDeliver.println(this);
+        try {
+            if (journal != null) journal.close();
+        } catch (IOException exception) {
+            OutputDeliver.printError("Произошла ошибка при закрытии журнала отложенной записи!");
+        }
+    }
+
+    /**
+     * Writes the oldest changes to the database in one transaction. Changes of one band are merged.
+     * After repeated failures changes are written one by one and the rejected ones are dropped.
+     */
+    private void flush() {
+        List<Mutation> batch;
+        synchronized (this) {
+            if (pendingMutations.isEmpty()) return;
+            batch = new ArrayList<>(Math.min(maxBatchSize, pendingMutations.size()));
+            Iterator<Mutation> iterator = pendingMutations.iterator();
+            while (batch.size() < maxBatchSize && iterator.hasNext()) batch.add(iterator.next());
+        }
+        int droppedSize = 0;
+        try {
+            write(batch);
+            failedAttempts = 0;
+        } catch (DatabaseHandlingException | ManualDatabaseEditException exception) {
+            failedFlushCount.incrementAndGet();
+            if (exception instanceof DatabaseHandlingException && ++failedAttempts < MAX_FLUSH_ATTEMPTS) return;
+            failedAttempts = 0;
+            try {
+                droppedSize = writeOneByOne(batch);
+            } catch (DatabaseHandlingException writeException) {
+                return;
+            }
+        }
+        complete(batch);
+        if (droppedSize > 0 && collectionManager != null) collectionManager.reloadCollection();
+    }
+
+    /**
+     * Merges changes of each band. The band stored in the database before the batch is deleted by the first
+     * removal, band which didn't exist or was deleted is inserted with its final state, otherwise it's updated.
+     */
+    private void write(List<Mutation> mutations) throws DatabaseHandlingException, ManualDatabaseEditException {
+        Map<Integer, Mutation> firstMutations = new HashMap<>();
+        Map<Integer, Mutation> lastMutations = new LinkedHashMap<>();
+        Map<Integer, Long> deletedBands = new LinkedHashMap<>();
+        for (Mutation mutation : mutations) {
+            Mutation firstMutation = firstMutations.computeIfAbsent(mutation.bandId, id -> mutation);
+            lastMutations.put(mutation.bandId, mutation);
+            if (mutation.type == DELETE && firstMutation.type != INSERT)
+                deletedBands.putIfAbsent(mutation.bandId, mutation.ownerId);
+        }
+        List<MusicBand> insertedBands = new ArrayList<>();
+        List<MusicBand> updatedBands = new ArrayList<>();
+        for (Mutation mutation : lastMutations.values()) {
+            if (mutation.type == DELETE) continue;
+            boolean isAbsent = firstMutations.get(mutation.bandId).type == INSERT ||
+                    deletedBands.containsKey(mutation.bandId);
+            if (isAbsent) insertedBands.add(mutation.band);
+            else updatedBands.add(mutation.band);
+        }
+        databaseCollectionManager.writeBands(insertedBands, updatedBands, deletedBands);
+    }
+
+    /**
+     * Writes changes in separate transactions, dropping the ones rejected by the database
+     * (constraint violations, wrong data or band of another owner).
+     * @return Amount of dropped changes.
+     * @throws DatabaseHandlingException When database is unreachable.
+     */
+    private int writeOneByOne(List<Mutation> mutations) throws DatabaseHandlingException {
+        int droppedSize = 0;
+        for (Mutation mutation : mutations) {
+            try {
+                write(Collections.singletonList(mutation));
+            } catch (ManualDatabaseEditException exception) {
+                OutputDeliver.printError("База данных отклонила изменение группы №" + mutation.bandId +
+                        ", изменение отброшено!");
+                droppedCount.incrementAndGet();
+                droppedSize++;
+            }
+        }
+        return droppedSize;
+    }
+
+    /**
+     * Removes written changes from the queue and marks them in the journal.
+     * Journal is rewritten with pending changes only when it has grown twice since the last rewrite.
+     */
+    private synchronized void complete(List<Mutation> batch) {
+        long now = System.currentTimeMillis();
+        for (Mutation mutation : batch) {
+            if (pendingMutations.peekFirst() == mutation) pendingMutations.pollFirst();
+            maxLagMillis.accumulateAndGet(now - mutation.queuedTime, Math::max);
+        }
+        flushedCount.addAndGet(batch.size());
+        batchCount.incrementAndGet();
+        try {
+            if (pendingMutations.isEmpty()) {
+                journal.truncate(0);
+                journal.position(0);
+                compactedSize = 0;
+            } else {
+                ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+                DataOutputStream recordOutput = new DataOutputStream(recordStream);
+                recordOutput.writeByte(CHECKPOINT);
+                recordOutput.writeLong(batch.get(batch.size() - 1).sequence);
+                writeToJournal(recordStream.toByteArray());
+                if (journal.size() > Math.max(MIN_COMPACTION_SIZE, 2 * compactedSize)) compactJournal();
+            }
+        } catch (IOException exception) {
+            OutputDeliver.printError("Произошла ошибка при записи в журнал отложенной записи!");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Replaces the journal with a new one containing only pending changes. Must be called under the monitor.
+     * @throws IOException When new journal can't be written, the old one is kept then.
+     */
+    private void compactJournal() throws IOException {
+        Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+        try (FileChannel compactedJournal = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream recordOutput = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(compactedJournal)));
+            for (Mutation mutation : pendingMutations) writeRecord(recordOutput, mutation);
+            recordOutput.flush();
+            compactedJournal.force(false);
+        }
+        journal.close();
+        try {
+            Files.move(compactedPath, journalPath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            journal = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journal.position(journal.size());
+        }
+        compactedSize = journal.size();
+        OutputDeliver.println("Журнал отложенной записи сжат до " + compactedSize + " байт.");
+    }
+
+    private void writeRecord(DataOutputStream recordOutput, Mutation mutation) throws IOException {
+        if (mutation.type != DELETE) {
+            ByteArrayOutputStream bandStream = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectStream = new ObjectOutputStream(bandStream)) {
+                objectStream.writeObject(mutation.band);
+            }
+            recordOutput.writeByte(mutation.type);
+            recordOutput.writeLong(mutation.sequence);
+            recordOutput.writeInt(bandStream.size());
+            bandStream.writeTo(recordOutput);
+        } else {
+            recordOutput.writeByte(DELETE);
+            recordOutput.writeLong(mutation.sequence);
+            recordOutput.writeInt(mutation.bandId);
+            recordOutput.writeLong(mutation.ownerId);
+        }
+    }
+
+    private MusicBand readBand(byte[] bandBytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(bandBytes))) {
+            return (MusicBand) objectStream.readObject();
+        }
+    }
+
+    /**
+     * Removes partially written records, so that they don't hide the next ones.
+     */
+    private void truncateJournal(long journalSize) {
+        if (journalSize < 0) return;
+        try {
+            journal.truncate(journalSize);
+            journal.position(journalSize);
+        } catch (IOException exception) {
+            OutputDeliver.printError("Журнал отложенной записи поврежден!");
+        }
+    }
+
+    private void writeToJournal(byte[] records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) journal.write(buffer);
+        journal.force(false);
+    }
+
+    /**
+     * @return Amount of changes not written to the database yet.
+     */
+    public synchronized int getPendingCount() {
+        return pendingMutations.size();
+    }
+
+    /**
+     * @return Age of the oldest change not written to the database yet.
+     */
+    public synchronized long getCurrentLagMillis() {
+        Mutation oldestMutation = pendingMutations.peekFirst();
+        return oldestMutation == null ? 0 : System.currentTimeMillis() - oldestMutation.queuedTime;
+    }
+
+    /**
+     * @return Maximal time between acknowledgement and writing of a change.
+     */
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindQueue[pending=" + getPendingCount() +
+                ", lagMs=" + getCurrentLagMillis() +
+                ", maxLagMs=" + getMaxLagMillis() +
+                ", flushed=" + flushedCount.get() +
+                ", batches=" + batchCount.get() +
+                ", failedFlushes=" + failedFlushCount.get() +
+                ", dropped=" + droppedCount.get() + "]";
+    }
+
+    /**
+     * Changes of one transaction, appended at once so that the journal never contains a part of them.
+     */
+    private class TransactionAppend implements DatabaseHandler.CommitAction {
+        private final List<Mutation> mutations = new ArrayList<>();
+
+        @Override
+        public void run() throws DatabaseHandlingException {
+            if (!mutations.isEmpty()) append(mutations);
+        }
+    }
+
+    /**
+     * Change of one band.
+     */
+    private static class Mutation {
+        private long sequence;
+        private long queuedTime;
+        private final byte type;
+        private final int bandId;
+        private final MusicBand band;
+        private final long ownerId;
+
+        private Mutation(long sequence, byte type, MusicBand band) {
+            this.sequence = sequence;
+            this.type = type;
+            this.bandId = band.getId();
+            this.band = band;
+            this.ownerId = band.getOwnerId();
+        }
+
+        private Mutation(long sequence, int bandId, long ownerId) {
+            this.sequence = sequence;
+            this.type = DELETE;
+            this.bandId = bandId;
+            this.band = null;
+            this.ownerId = ownerId;
+        }
+    }
+}